@@ -5,6 +5,8 @@
  */
 package uk101.hardware;
 
+import java.util.concurrent.locks.LockSupport;
+
 import uk101.hardware.bus.IOBus;
 import uk101.hardware.bus.IODevice;
 import uk101.machine.Computer;
@@ -30,18 +32,61 @@ public class ACIA6850 extends Memory implements IODevice, Runnable {
      *
      * The UK101 doesn't use any interrupts and only works by polling the status
      * port, so this logic is fairly simple.
+     *
+     * In the normal mode the processor and the worker thread share the single
+     * transmit and receive bytes under a lock, and the worker thread is woken
+     * for every character.  A receive device that has nothing to read is
+     * asked again after a short time.  In ring mode the two sides are joined
+     * by a pair of lock-free ring buffers instead.  The worker thread fills
+     * the receive ring from the device in bulk and drains the transmit ring,
+     * and the status bits are worked out from how full the rings are.  The
+     * worker thread is only woken when it has gone idle, so a tape can be
+     * read or written with a thread switch every few hundred characters
+     * rather than two for each one.
+     *
+     * Character times are counted in emulated CPU cycles, from the clock rate,
+     * divide ratio and word length, and applied to the status bits when they
+     * are read.  With no transmit device TDRE is clear for the time it takes
+     * to send a character, which some programs use for timing.  Devices such as
+     * the cassette recorder normally run as fast as they can, but a device can
+     * ask to be paced, in which case TDRE and RDRF are also held clear for a
+     * character time after each character.
      */
 
+    // Ring sizes, and the receive level below which the worker is woken
+    static final int RING_SIZE = 256;
+    static final int RING_LOW = RING_SIZE/2;
+
+    // Time to wait before asking an idle receive device for data again
+    static final long IDLE_POLL = 10000000L;
+
     private byte statusReg;             // Status register
     private byte txByte, rxByte;        // Transmit/receive buffers
 
     private int txClock;                // Transmit clock rate
-    private int txTime;                 // Millisecond time to transmit one character
+    private int divide, length;         // Clock divide ratio and bits per character
     private int baudRate;               // Real baud rate
 
-    private IOBus txBus, rxBus;
+    private CPU6502 clock;              // Emulated time
+    private volatile boolean paced;     // Hold devices to the baud rate
+    private long txDone, rxReady;       // Cycle times the status bits can be set
+
+    private volatile IOBus txBus, rxBus;
+    private boolean pending;            // Work for the worker thread
+
+    private boolean ring;               // Use ring buffers
+    private RingBuffer txRing, rxRing;
+    private volatile boolean idle;      // Worker thread is parked
+    private volatile boolean draining;  // Worker is waiting for the receive ring to drain
+    private Thread worker;
+
+    private volatile long rxCount, txCount;     // Characters passed to/from the processor
 
     public ACIA6850(int baud, int priority) {
+        this(baud, priority, false);
+    }
+
+    public ACIA6850(int baud, int priority, boolean ring) {
         super(256);                 // Decodes to 256 bytes of store
 
         statusReg = STATUS_TDRE;    // Initial state - ready to transmit
@@ -50,9 +95,17 @@ public class ACIA6850 extends Memory implements IODevice, Runnable {
         // rate is set to 16x the required baud rate.
         txClock = baud*16;
         baudRate = baud;
+        divide = 16;
+        length = 11;
+
+        this.ring = ring;
+        if (ring) {
+            txRing = new RingBuffer(RING_SIZE);
+            rxRing = new RingBuffer(RING_SIZE);
+        }
 
         // Start the worker thread.  Use a lower priority than the CPU thread.
-        Thread worker = new Thread(this);
+        worker = new Thread(this);
         worker.setName(getClass().getSimpleName());
         worker.setPriority(Math.max(Thread.MIN_PRIORITY, priority-1));
         worker.start();
@@ -63,10 +116,22 @@ public class ACIA6850 extends Memory implements IODevice, Runnable {
      * two registers that are accessed.
      */
 
-    public synchronized byte readByte(int offset) {
+    public byte readByte(int offset) {
+        return ring ? readRing(offset) : readLocked(offset);
+    }
+
+    public void writeByte(int offset, byte b) {
+        if (ring) {
+            writeRing(offset, b);
+        } else {
+            writeLocked(offset, b);
+        }
+    }
+
+    private synchronized byte readLocked(int offset) {
         byte b = 0;
         if ((offset & 1) == 0) {
-            b = statusReg;
+            b = timed(statusReg);
         } else {
             b = rxByte;
             // TODO: There's an issue here when loading the EXMON tape (and maybe
@@ -78,58 +143,190 @@ public class ACIA6850 extends Memory implements IODevice, Runnable {
             // address F001.  This is fine, F001 is the address that should be used,
             // rather than some other random value in the 256 byte block.
             if (!Computer.aciaFix1 || offset == 1) {
+                if ((statusReg & STATUS_RDRF) != 0) {
+                    rxCount += 1;
+                    if (paced)
+                        rxReady = cycles() + charCycles();
+                }
                 statusReg &= ~STATUS_RDRF;
-                notify();
+                wake();
             }
         }
         return b;
     }
 
-    public synchronized void writeByte(int offset, byte b) {
+    private synchronized void writeLocked(int offset, byte b) {
         if ((offset & 1) == 0) {
             if (b == CONTROL_RESET) {
                 statusReg = STATUS_TDRE;
                 setSpeed((byte)0);
+                txDone = rxReady = 0;
             } else {
                 setSpeed(b);
             }
         } else {
             txByte = b;
-            statusReg &= ~STATUS_TDRE;
-            notify();
+            txCount += 1;
+            if (txBus == null || paced)
+                txDone = cycles() + charCycles();
+            if (txBus != null) {
+                statusReg &= ~STATUS_TDRE;
+                wake();
+            }
         }
     }
 
     // Ensure reading for trace does not consume the character
     public byte traceByte(int offset) {
-        return (offset & 1) == 0 ? statusReg : rxByte;
+        if (ring && (offset & 1) == 0)
+            return ringStatus(!rxRing.isEmpty());
+        return (offset & 1) == 0 ? timed(statusReg) : rxByte;
+    }
+
+    /*
+     * Ring mode register access.  Only the processor thread reads and
+     * writes the ACIA so it is the receive consumer and transmit producer.
+     */
+
+    private byte readRing(int offset) {
+        if ((offset & 1) == 0) {
+            boolean rx = rxRing.peek() != -1;
+            drained();
+            return ringStatus(rx);
+        }
+
+        // See the note in readLocked about the F001 check
+        int rb = rxRing.peek();
+        if (rb != -1) {
+            rxByte = (byte)rb;
+            if (!Computer.aciaFix1 || offset == 1) {
+                rxRing.poll();
+                rxCount += 1;
+                if (paced)
+                    rxReady = cycles() + charCycles();
+            }
+        }
+        drained();
+        return rxByte;
+    }
+
+    // Wake the worker if it is waiting for the receive ring to drain.  This
+    // is checked after every look at the ring, as that is also when any
+    // discarded bytes are skipped and the ring may suddenly become empty.
+    private void drained() {
+        if (draining && rxRing.size() <= RING_LOW) {
+            draining = false;
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void writeRing(int offset, byte b) {
+        if ((offset & 1) == 0) {
+            setSpeed((b == CONTROL_RESET) ? (byte)0 : b);
+            if (b == CONTROL_RESET)
+                txDone = rxReady = 0;
+        } else {
+            txByte = b;
+            txCount += 1;
+            if (txBus == null || paced)
+                txDone = cycles() + charCycles();
+            if (txBus != null && txRing.offer(b) && idle) {
+                LockSupport.unpark(worker);
+            }
+        }
+    }
+
+    // Only the processor thread can check exactly if there is a character
+    // to read, other threads use the approximate ring size.
+    private byte ringStatus(boolean rx) {
+        byte s = 0;
+        if (rx)
+            s |= STATUS_RDRF;
+        if (txBus == null || !txRing.isFull())
+            s |= STATUS_TDRE;
+        return timed(s);
+    }
+
+    /*
+     * Character timing in emulated CPU cycles.  When the CPU is running as
+     * fast as it can the time is worked out as if it was running at 1MHz.
+     */
+
+    public void setClock(CPU6502 cpu) {
+        clock = cpu;
+    }
+
+    public void setPaced(boolean paced) {
+        this.paced = paced;
     }
 
-    // Sets the time (in milliseconds) to send and receive a single character
-    // based on the clock frequency and the control register settings.
+    private long cycles() {
+        return (clock != null) ? clock.getCycles() : 0;
+    }
+
+    private long charCycles() {
+        if (clock == null)
+            return 0;
+        long hz = Math.max(clock.getMHz(), 1)*1000000L;
+        return hz*length*divide/txClock;
+    }
+
+    // Clear the status bits until the character times are up
+    private byte timed(byte status) {
+        if (txDone != 0 || rxReady != 0) {
+            long now = cycles();
+            if (now < txDone)
+                status &= ~STATUS_TDRE;
+            if (now < rxReady)
+                status &= ~STATUS_RDRF;
+        }
+        return status;
+    }
+
+    // Wake the worker thread.  The flag means a wake up is not lost if the
+    // worker is busy (or not yet started) when it happens.
+    private void wake() {
+        pending = true;
+        notify();
+    }
+
+    // Sets the divide ratio and the number of bits (including start, parity
+    // and stop bits) to send and receive a single character based on the
+    // control register settings.
     private void setSpeed(byte controlReg) {
         int sb = controlReg & 0x03;
         int wb = (controlReg>>2) & 0x07;
-        int divide = (sb == 1) ? 16 : (sb == 2) ? 64 : 1;
-        int length = (wb == 2 || wb == 3 || wb == 5) ? 10 : 11;
-
+        divide = (sb == 1) ? 16 : (sb == 2) ? 64 : 1;
+        length = (wb == 2 || wb == 3 || wb == 5) ? 10 : 11;
         baudRate = txClock / divide;
-        txTime = (1000 * length * divide) / txClock;
-        txTime = (txTime*2)/3;  // Reduce a little for inaccuracies!
     }
 
    /*
     * IODevice interface allows external devices (such as the cassette recorder)
     * to set an IOBus when they have the ability to send or receive data.
     */
-    public synchronized void setTxBus(IOBus bus) {
-        txBus = bus;
+    public void setTxBus(IOBus bus) {
+        if (ring) {
+            txBus = bus;
+            LockSupport.unpark(worker);
+        } else {
+            synchronized (this) {
+                txBus = bus;
+            }
+        }
     }
 
-    public synchronized void setRxBus(IOBus bus) {
-        rxBus = bus;
-        if (bus != null) {
-            notify();
+    public void setRxBus(IOBus bus) {
+        if (ring) {
+            rxBus = bus;
+            LockSupport.unpark(worker);
+        } else {
+            synchronized (this) {
+                rxBus = bus;
+                if (bus != null) {
+                    wake();
+                }
+            }
         }
     }
 
@@ -137,22 +334,61 @@ public class ACIA6850 extends Memory implements IODevice, Runnable {
         return baudRate;
     }
 
+    // The devices currently plugged in, so a device can check it has not
+    // been replaced by another one.
+    public IOBus getTxBus() {
+        return txBus;
+    }
+
+    public IOBus getRxBus() {
+        return rxBus;
+    }
+
+    /*
+     * Number of characters the processor has read and written
+     */
+    public long getRxCount() {
+        return rxCount;
+    }
+
+    public long getTxCount() {
+        return txCount;
+    }
+
     /*
      * Worker thread that handles transmitting and receiving characters.
      */
     public void run() {
-        boolean tx, rx;
+        if (ring) {
+            runRing();
+        } else {
+            runLocked();
+        }
+    }
+
+    private void runLocked() {
+        boolean tx, rx, rxEmpty;
         byte sb;
         int tb, rb;
 
         rb = -1;
         sb = 0;
+        rxEmpty = false;
         while (true) {
             try {
                 synchronized (this) {
                     if (sb != 0) statusReg |= sb;
                     if (rb != -1) rxByte = (byte)rb;
-                    wait();
+                    // If the receive device had no data then ask again after
+                    // a short time, as in ring mode.
+                    if (rxEmpty) {
+                        if (!pending)
+                            wait(IDLE_POLL/1000000);
+                    } else {
+                        while (!pending)
+                            wait();
+                    }
+                    pending = false;
 
                     tx = ((statusReg & STATUS_TDRE) == 0);
                     rx = ((statusReg & STATUS_RDRF) == 0);
@@ -163,25 +399,25 @@ public class ACIA6850 extends Memory implements IODevice, Runnable {
 
                 // Anything waiting to be transmitted? 
                 if (tx) {
-                    // If a device is attached we assume it handles the timing of the
-                    // character; if there is no device we pause for the correct time
-                    // to write a single character.  (This allows the ACIA to be used
-                    // to generate a timing signal, but still allows saving to simulated
-                    // tape files to happen as quickly as possible.)
-                    if (txBus != null) {
-                        txBus.writeByte(tb);
-                    } else {
-                        Thread.sleep(txTime);
+                    // The character timing is handled on the processor side, so
+                    // just pass it on.  If the device has gone it is lost.
+                    IOBus bus = txBus;
+                    if (bus != null) {
+                        bus.writeByte(tb);
                     }
                     sb |= STATUS_TDRE;
                 }
 
                 // Anything to receive
+                rxEmpty = false;
                 if (rx) {
-                    if (rxBus != null) {
-                        rb = rxBus.readByte();
+                    IOBus bus = rxBus;
+                    if (bus != null) {
+                        rb = bus.readByte();
                         if (rb != -1) {
                             sb |= STATUS_RDRF;
+                        } else {
+                            rxEmpty = true;
                         }
                     }
                 }
@@ -190,12 +426,75 @@ public class ACIA6850 extends Memory implements IODevice, Runnable {
         }
     }
 
+    // In ring mode the worker thread is the transmit consumer and the
+    // receive producer.  Whatever was read ahead from a receive device is
+    // kept while no device is attached, as when a tape is stopped, and is
+    // only thrown away when a different device is attached.
+    private void runRing() {
+        IOBus lastRx = null;
+        boolean rxEnd = false;
+        while (true) {
+            boolean busy = false;
+
+            // Send everything waiting, anything left when the device goes
+            // is lost.
+            int tb;
+            while ((tb = txRing.poll()) != -1) {
+                IOBus bus = txBus;
+                if (bus != null) {
+                    bus.writeByte(tb);
+                }
+                busy = true;
+            }
+
+            // Fill the receive ring
+            IOBus bus = rxBus;
+            if (bus != null && bus != lastRx) {
+                rxRing.discard();
+                lastRx = bus;
+                rxEnd = false;
+            }
+            if (bus != null && !rxEnd) {
+                while (rxBus == bus && !rxRing.isFull()) {
+                    int rb = bus.readByte();
+                    if (rb == -1) {
+                        rxEnd = true;
+                        break;
+                    }
+                    rxRing.offer(rb);
+                    busy = true;
+                }
+            }
+
+            // Nothing to do, so wait to be woken.  The flags are set before
+            // checking again so a wake up cannot be missed.  If the device had
+            // no data then ask again after a short time.  A ring still full of
+            // bytes waiting to be discarded is waited on like any other full
+            // ring, the processor wakes the worker when it has skipped them.
+            if (!busy) {
+                idle = true;
+                draining = (bus != null && !rxEnd);
+                if (txRing.peek() == -1 && rxBus == bus
+                        && (bus == null || rxEnd || rxRing.isFull() || rxRing.size() > RING_LOW)) {
+                    if (rxEnd) {
+                        LockSupport.parkNanos(this, IDLE_POLL);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+                idle = false;
+                draining = false;
+                rxEnd = false;
+            }
+        }
+    }
+
     /*
      * Mainly for debugging
      */
     public String toString() {
         StringBuilder s = new StringBuilder("ACIA").append(memBase());
-        s.append(" Status=").append(Data.toBinaryString(statusReg));
+        s.append(" Status=").append(Data.toBinaryString(traceByte(0)));
         s.append(" Tx=").append(Data.toHexString(txByte));
         s.append(" Rx=").append(Data.toHexString(rxByte));
         return s.toString();
@@ -12,6 +12,7 @@ import uk101.machine.Computer;
 import uk101.machine.Configuration;
 import uk101.machine.Cpu;
 import uk101.machine.Data;
+import uk101.machine.Profile;
 import uk101.machine.Trace;
 
 /**
@@ -82,9 +83,21 @@ public class CPU6502 {
     // Relative speed calculation
     private long cpuStart, cpuCycles;
 
+    // Emulated time
+    private long totalCycles;
+
+    // Task run after a fixed number of CPU cycles
+    private Runnable timerTask;
+    private int timerCycles, timerCount;
+
+    // Task run in place of a subroutine
+    private Trap trapTask;
+    private int trapAddr = -1, trapCycles;
+
     // Debugging
     private Trace trace;
     private Trace.Entry traceEntry;
+    private Profile profile;
 
     public CPU6502(int mhz, String control, DataBus bus) {
         this.alu = new ALU6502();
@@ -194,12 +207,21 @@ public class CPU6502 {
         running.set(true);
         while (running.get()) {
             synchronized (this) {
-                // Check for external signals 
+                // Check for external signals and input
                 checkSignals();
+                bus.update();
 
                 // Execute the next instruction
                 int cycles = execute();
                 cpuCycles += cycles;
+                totalCycles += cycles;
+                if (timerTask != null) {
+                    timerCount -= cycles;
+                    if (timerCount <= 0) {
+                        timerCount += timerCycles;
+                        timerTask.run();
+                    }
+                }
 
                 // It is difficult to get timings exactly right in Java.  This logic
                 // assumes we are running too fast (which should be true most of the
@@ -212,7 +234,6 @@ public class CPU6502 {
                 if (speed > 0) {
                     end += cycles*speed;
                     if (blockEnd && end > now) {
-                        bus.pause(true);
                         while (end > now) {
                             if (useSleep) {
                                 long pause = end-now;
@@ -222,7 +243,6 @@ public class CPU6502 {
                             } // else just spin
                             now = System.nanoTime();
                         }
-                        bus.pause(false);
                     }
                 }
             }
@@ -272,6 +292,19 @@ public class CPU6502 {
             traceEntry = trace.trace(new Cpu(this));
         }
 
+        // Save instruction address for the profile
+        int pc = Data.asAddr(PC);
+
+        // A trapped subroutine can return straight away
+        if (pc == trapAddr && trap()) {
+            traceEntry = null;
+            blockEnd = true;
+            if (profile != null) {
+                profile.count(pc, trapCycles);
+            }
+            return trapCycles;
+        }
+
         // Read the next opcode
         int op = Data.asBits(fetchByte());
 
@@ -448,6 +481,11 @@ public class CPU6502 {
         // Ensure tracing disabled until next instruction
         traceEntry = null;
 
+        // Count instruction if profiling
+        if (profile != null) {
+            profile.count(pc, cycles + bc);
+        }
+
         return cycles + bc;
     }
 
@@ -459,18 +497,25 @@ public class CPU6502 {
             sigRST = sigNMI = sigIRQ = false;
             reset();
             PC = readWord(RST_VECTOR);
+            if (profile != null) {
+                profile.reset();
+            }
         } else if (sigNMI) {
             sigNMI = false;
+            int sp = Data.asAddr(S);
             pushWord(PC);
             pushByte(P);
             setFlag(FLAG_I, true);
             PC = readWord(NMI_VECTOR);
+            profileCall(sp, true);
         } else if (sigIRQ) {
             sigIRQ = false;
+            int sp = Data.asAddr(S);
             pushWord(PC);
             pushByte((byte)(P & ~FLAG_B));
             setFlag(FLAG_I, true);
             PC = readWord(IRQ_VECTOR);
+            profileCall(sp, true);
         }
     }
 
@@ -482,9 +527,11 @@ public class CPU6502 {
     }
 
     private void brk() {
+        int sp = Data.asAddr(S);
         pushWord((short)(PC + 1));
         pushByte((byte)(P | FLAG_B));
         PC = readWord(IRQ_VECTOR);
+        profileCall(sp, true);
     }
 
     private void sta(int mode) {
@@ -677,18 +724,22 @@ public class CPU6502 {
     }
 
     private void jsr(int mode) {
+        int sp = Data.asAddr(S);
         pushWord((short)(PC + 1));
         PC = (short)getAddress(mode);
+        profileCall(sp, false);
     }
 
     private void rts() {
         PC = pullWord();
         PC += 1;
+        profileReturn();
     }
 
     private void rti() {
         P = pullByte();
         PC = pullWord();
+        profileReturn();
     }
 
     private void php() {
@@ -769,6 +820,10 @@ public class CPU6502 {
             if (bus instanceof Computer)
                 ((Computer)bus).trace(action == 0x01);
             break;
+        case 0x03: case 0x04:
+            if (bus instanceof Computer)
+                ((Computer)bus).profile(action == 0x03);
+            break;
         default:
             PC -= 1;
             break;
@@ -901,6 +956,63 @@ public class CPU6502 {
         this.trace = trace;
     }
 
+    // Enable/disable profiling
+    public synchronized void profile(Profile profile) {
+        this.profile = profile;
+    }
+
+    // Total emulated CPU cycles executed, for devices that need to keep time.
+    // Only exact when called on the CPU thread.
+    public long getCycles() {
+        return totalCycles;
+    }
+
+    // Run a task on the CPU thread every so many emulated CPU cycles, or
+    // stop running it if the task is null.
+    public synchronized void timer(int cycles, Runnable task) {
+        timerTask = task;
+        timerCycles = timerCount = Math.max(cycles, 1);
+    }
+
+    // Run a task on the CPU thread when it reaches an address in a subroutine,
+    // or stop trapping the address if the task is null.
+    public synchronized void trap(int addr, int cycles, Trap task) {
+        trapTask = task;
+        trapAddr = (task != null) ? addr : -1;
+        trapCycles = cycles;
+    }
+
+    // If the task has a byte the subroutine returns it in A, as a load
+    // that leaves the carry set, otherwise the code runs as normal.
+    private boolean trap() {
+        int b = trapTask.trap();
+        if (b == -1)
+            return false;
+        A = (byte)b;
+        setNZ(A);
+        setFlag(FLAG_C, true);
+        rts();
+        return true;
+    }
+
+    // Task run in place of the code at a trapped address
+    public interface Trap {
+        public int trap();      // Return a byte, or -1 to run the code
+    }
+
+    // Record calls and returns in the profile call graph
+    private void profileCall(int sp, boolean irq) {
+        if (profile != null) {
+            profile.call(Data.asAddr(PC), sp, irq);
+        }
+    }
+
+    private void profileReturn() {
+        if (profile != null) {
+            profile.ret(Data.asAddr(S));
+        }
+    }
+
     /*
      * Mainly for debugging
      */
@@ -0,0 +1,395 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.hardware;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import uk101.hardware.bus.DataBus;
+import uk101.io.UK101InputStream;
+import uk101.io.UK101OutputStream;
+import uk101.machine.Basic;
+import uk101.machine.Data;
+
+/**
+ * A memory mapped block device that stores files in a directory on the
+ * host.  A program selects a file by name and then reads or writes 256
+ * byte sectors between the file and memory, each command completing in a
+ * single store to the command register.
+ *
+ * The device takes one 256 byte block of the address space:
+ *
+ *   +00       command (write) / status (read)
+ *   +01       sector count
+ *   +02,+03   memory address
+ *   +04,+05   sector number
+ *   +06,+07   address of the file name, ending with a NUL or '"'
+ *   +08,+09   file size in sectors, set by open
+ *   +0A-+0D   original BASIC LOAD and SAVE vectors, saved by the driver
+ *   +10-+2F   message for the last error, ending with a NUL
+ *   +30-      driver code
+ *
+ * Read and write move the memory address and sector number on past the
+ * sectors transferred, so a file can be read or written in several parts.
+ *
+ * The driver code installs BASIC LOAD and SAVE hooks when it is called,
+ * for example with X=USR(0) after pointing the USR vector at it.  LOAD and
+ * SAVE followed by a quoted name then load or save a BASIC listing in the
+ * same format as an ASCII tape.  Without a name they use the tape as
+ * normal.
+ */
+public class Disk extends Memory {
+
+    // Commands
+    public static final int OPEN = 1;
+    public static final int CREATE = 2;
+    public static final int READ = 3;
+    public static final int WRITE = 4;
+    public static final int CLOSE = 5;
+    public static final int LOAD = 6;
+    public static final int SAVE = 7;
+
+    // Status values
+    public static final int OK = 0;
+    public static final int NO_NAME = 1;
+    public static final int NOT_FOUND = 2;
+    public static final int IO_ERROR = 3;
+    public static final int NOT_OPEN = 4;
+    public static final int BAD_NAME = 5;
+    public static final int NOT_READY = 6;
+    public static final int BAD_COMMAND = 7;
+    public static final int NO_ROOM = 8;
+
+    private static final String[] MESSAGES = {
+        null, null, "FILE NOT FOUND", "DISK ERROR", "NO FILE OPEN",
+        "BAD FILE NAME", "NOT IN DIRECT MODE", "BAD COMMAND", "PROGRAM TOO BIG"
+    };
+
+    // Register offsets
+    static final int COUNT = 0x01;
+    static final int ADDRESS = 0x02;
+    static final int SECTOR = 0x04;
+    static final int NAME = 0x06;
+    static final int SIZE = 0x08;
+    static final int VECTORS = 0x0A;
+    static final int MESSAGE = 0x10;
+    static final int DRIVER = 0x30;
+
+    public static final int SECTOR_SIZE = 256;
+
+    // Monitor LOAD and SAVE vectors, BASIC output routine and text pointer
+    private static final int LOADSAVE = 0x021E;
+    private static final int OUTPUT = 0xFFEE;
+    private static final int TXTPTR = 0xC3;
+
+    private static final int MAXNAME = 32;
+
+    private File directory;
+    private int maxLength;
+    private DataBus bus;
+    private RandomAccessFile file;
+    private int status;
+
+    public Disk(int base, String dir, int maxlen) throws IOException {
+        super(new byte[SECTOR_SIZE], false);
+        this.base = base;
+        maxLength = maxlen;
+        directory = new File(dir);
+        if (!directory.isDirectory()) {
+            throw new FileNotFoundException(dir);
+        }
+        driver();
+    }
+
+    // The device reads and writes memory directly
+    public void setBus(DataBus bus) {
+        this.bus = bus;
+    }
+
+    public void close() {
+        closeFile();
+    }
+
+    /*
+     * Registers and driver code
+     */
+    public byte readByte(int offset) {
+        return (offset == 0) ? (byte)status : store[offset];
+    }
+
+    public void writeByte(int offset, byte b) {
+        if (offset == 0) {
+            command(b & 0xFF);
+        } else if (offset < DRIVER) {
+            store[offset] = b;
+        }
+    }
+
+    public byte traceByte(int offset) {
+        return readByte(offset);
+    }
+
+    private void command(int cmd) {
+        int rc;
+        try {
+            switch (cmd) {
+            case OPEN:   rc = open(false);  break;
+            case CREATE: rc = open(true);   break;
+            case READ:   rc = transfer(false);  break;
+            case WRITE:  rc = transfer(true);   break;
+            case CLOSE:  rc = closeFile();  break;
+            case LOAD:   rc = basic(false); break;
+            case SAVE:   rc = basic(true);  break;
+            default:     rc = BAD_COMMAND;  break;
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            rc = IO_ERROR;
+        }
+        setStatus(rc);
+    }
+
+    private void setStatus(int rc) {
+        status = rc;
+        String msg = (rc < MESSAGES.length && MESSAGES[rc] != null) ? MESSAGES[rc] + "\r\n" : "";
+        for (int i = 0; i < DRIVER-MESSAGE; i++) {
+            store[MESSAGE+i] = (i < msg.length()) ? (byte)msg.charAt(i) : 0;
+        }
+    }
+
+    /*
+     * Sector commands
+     */
+    private int open(boolean create) throws IOException {
+        closeFile();
+        File f = find(readName(getWord(NAME)));
+        if (f == null)
+            return BAD_NAME;
+        if (!create && !f.isFile())
+            return NOT_FOUND;
+        file = new RandomAccessFile(f, (create || f.canWrite()) ? "rw" : "r");
+        if (create) {
+            file.setLength(0);
+        }
+        setWord(SIZE, (int)((file.length() + SECTOR_SIZE-1)/SECTOR_SIZE));
+        return OK;
+    }
+
+    // Reads past the end of the file fill memory with zeros
+    private int transfer(boolean write) throws IOException {
+        if (file == null || bus == null)
+            return NOT_OPEN;
+        byte[] sector = new byte[SECTOR_SIZE];
+        int count = store[COUNT] & 0xFF;
+        int addr = getWord(ADDRESS);
+        int sectorNum = getWord(SECTOR);
+        for (int i = 0; i < count; i++) {
+            file.seek((long)sectorNum*SECTOR_SIZE);
+            if (write) {
+                for (int j = 0; j < SECTOR_SIZE; j++) {
+                    sector[j] = bus.readByte((addr+j) & 0xFFFF);
+                }
+                file.write(sector);
+            } else {
+                int n = Math.max(file.read(sector), 0);
+                for (int j = 0; j < SECTOR_SIZE; j++) {
+                    bus.writeByte((addr+j) & 0xFFFF, (j < n) ? sector[j] : (byte)0);
+                }
+            }
+            addr = (addr + SECTOR_SIZE) & 0xFFFF;
+            sectorNum = (sectorNum + 1) & 0xFFFF;
+        }
+        setWord(ADDRESS, addr);
+        setWord(SECTOR, sectorNum);
+        if (write) {
+            setWord(SIZE, (int)((file.length() + SECTOR_SIZE-1)/SECTOR_SIZE));
+        }
+        return OK;
+    }
+
+    private int closeFile() {
+        int rc = OK;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                System.err.println(e);
+                rc = IO_ERROR;
+            }
+            file = null;
+        }
+        return rc;
+    }
+
+    /*
+     * BASIC LOAD and SAVE hooks.  The name follows the keyword in the
+     * program text, after it the text pointer is left where BASIC expects
+     * the end of the statement.  Programs are stored as '.basic' files if
+     * no other extension is given.
+     */
+    private int basic(boolean save) throws IOException {
+        if (bus == null)
+            return NOT_READY;
+        int txt = getBusWord(TXTPTR);
+        while (bus.readByte(txt) == ' ')
+            txt += 1;
+        if (bus.readByte(txt) != '"')
+            return NO_NAME;
+        String name = readName(txt+1);
+        txt += 1 + name.length();
+        if (bus.readByte(txt) == '"')
+            txt += 1;
+        if (name.length() > 0 && name.indexOf('.') == -1)
+            name += ".basic";
+
+        int rc = basic(save, find(name));
+        setBusWord(TXTPTR, txt);
+        return rc;
+    }
+
+    private int basic(boolean save, File f) throws IOException {
+        if (f == null)
+            return BAD_NAME;
+        Basic b = new Basic(bus);
+        if (!b.ready())
+            return NOT_READY;
+
+        if (save) {
+            OutputStream out = new UK101OutputStream(new FileWriter(f), maxLength);
+            b.save(out);
+            out.close();
+        } else {
+            if (!f.isFile())
+                return NOT_FOUND;
+            InputStream in = new UK101InputStream(new FileReader(f));
+            int lines = b.load(Basic.readListing(in));
+            in.close();
+            if (lines == -1)
+                return NO_ROOM;
+        }
+        return OK;
+    }
+
+    /*
+     * File names are looked up in the directory ignoring case, so programs
+     * typed in upper case find files stored in lower case.  Only simple
+     * names are allowed so files outside the directory cannot be reached.
+     */
+    private File find(String name) {
+        if (!name.matches("[A-Za-z0-9_][A-Za-z0-9_.-]*"))
+            return null;
+        String[] files = directory.list();
+        if (files != null) {
+            for (String s : files) {
+                if (s.equalsIgnoreCase(name))
+                    return new File(directory, s);
+            }
+        }
+        return new File(directory, name);
+    }
+
+    private String readName(int addr) {
+        StringBuilder sb = new StringBuilder();
+        for (int b = bus.readByte(addr); b != 0 && b != '"' && b != '\r' && sb.length() < MAXNAME; b = bus.readByte(++addr)) {
+            sb.append((char)(b & 0x7F));
+        }
+        return sb.toString();
+    }
+
+    private int getWord(int offset) {
+        return (store[offset] & 0xFF) | ((store[offset+1] & 0xFF) << 8);
+    }
+
+    private void setWord(int offset, int value) {
+        store[offset] = (byte)value;
+        store[offset+1] = (byte)(value >> 8);
+    }
+
+    private int getBusWord(int addr) {
+        return (bus.readByte(addr) & 0xFF) | ((bus.readByte(addr+1) & 0xFF) << 8);
+    }
+
+    private void setBusWord(int addr, int value) {
+        bus.writeByte(addr, (byte)value);
+        bus.writeByte(addr+1, (byte)(value >> 8));
+    }
+
+    /*
+     * Driver code, built for the device address
+     */
+    private void driver() {
+        int org = base + DRIVER;
+        int vectors = base + VECTORS;
+        int message = base + MESSAGE;
+        int load = org + 25;
+        int save = org + 42;
+        int table = org + 73;
+        int[] code = {
+            // Install: save the LOAD and SAVE vectors and replace them
+            0xAD, lo(LOADSAVE+1), hi(LOADSAVE+1),   // LDA $021F
+            0xC9, hi(load),                         // CMP #>LOAD    already installed?
+            0xF0, 0x11,                             // BEQ RTS
+            0xA2, 0x03,                             // LDX #3
+            0xBD, lo(LOADSAVE), hi(LOADSAVE),       // LDA $021E,X
+            0x9D, lo(vectors), hi(vectors),         // STA VECTORS,X
+            0xBD, lo(table), hi(table),             // LDA TABLE,X
+            0x9D, lo(LOADSAVE), hi(LOADSAVE),       // STA $021E,X
+            0xCA,                                   // DEX
+            0x10, 0xF1,                             // BPL
+            0x60,                                   // RTS
+            // LOAD hook
+            0xA9, LOAD,                             // LDA #LOAD
+            0x8D, lo(base), hi(base),               // STA COMMAND
+            0xAD, lo(base), hi(base),               // LDA STATUS
+            0xF0, 0x25,                             // BEQ DONE
+            0xC9, NO_NAME,                          // CMP #NO_NAME
+            0xD0, 0x14,                             // BNE ERROR
+            0x6C, lo(vectors), hi(vectors),         // JMP (VECTORS)  tape LOAD
+            // SAVE hook
+            0xA9, SAVE,                             // LDA #SAVE
+            0x8D, lo(base), hi(base),               // STA COMMAND
+            0xAD, lo(base), hi(base),               // LDA STATUS
+            0xF0, 0x14,                             // BEQ DONE
+            0xC9, NO_NAME,                          // CMP #NO_NAME
+            0xD0, 0x03,                             // BNE ERROR
+            0x6C, lo(vectors+2), hi(vectors+2),     // JMP (VECTORS+2)  tape SAVE
+            // ERROR: print the message
+            0xA2, 0x00,                             // LDX #0
+            0xBD, lo(message), hi(message),         // LDA MESSAGE,X
+            0xF0, 0x06,                             // BEQ DONE
+            0x20, lo(OUTPUT), hi(OUTPUT),           // JSR $FFEE
+            0xE8,                                   // INX
+            0xD0, 0xF5,                             // BNE
+            0x60,                                   // DONE: RTS
+            // TABLE: hook addresses
+            lo(load), hi(load), lo(save), hi(save),
+        };
+        for (int i = 0; i < code.length; i++) {
+            store[DRIVER+i] = (byte)code[i];
+        }
+    }
+
+    private static int lo(int addr) {
+        return addr & 0xFF;
+    }
+
+    private static int hi(int addr) {
+        return (addr >> 8) & 0xFF;
+    }
+
+    /*
+     * Mainly for debugging
+     */
+    public String toString() {
+        return "Disk" + memBase() + ": " + directory + " status=" + Data.toHexString((byte)status);
+    }
+}
@@ -1,21 +1,38 @@
 /**
  * Compukit UK101 Simulator
  *
- * (C) Copyright Tim Baldwin 2010,2021
+ * (C) Copyright Tim Baldwin 2010,2022
  */
 package uk101.hardware;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import uk101.machine.Configuration;
 import uk101.machine.Data;
+import uk101.machine.Latency;
 
 /**
  * The keyboard is mapped into a 1K block of memory at DF00-DFFF, although it
  * only uses 1 byte.
  *
  * This class emulates both the UK101 and the Ohio Superboard II keyboards.
+ *
+ * Key presses and releases can come from any thread (normally the Swing
+ * event thread) and are queued without locking.  The queued events are
+ * applied to the key matrix by the CPU thread between instructions, so
+ * the CPU sees a consistent matrix and the caller never waits for the CPU.
+ *
+ * Text can also be typed into the keyboard, for example when pasting a
+ * BASIC listing.  Typed keys are timed by the keyboard reads made by the
+ * monitor rather than by real time, so text goes in as fast as the monitor
+ * can scan the keyboard.  Each key is held down until its row has been read
+ * enough times for the monitor to debounce it, then held up until its row has
+ * been read again.  The monitor only scans the keyboard when it is waiting for
+ * input, so after a RETURN the next key waits until the line has been
+ * processed.
  */
 public class Keyboard extends Memory {
 
@@ -32,6 +49,14 @@ public class Keyboard extends Memory {
     public static final int KEY_REPEAT = -10;
     public static final int KEY_RESET = -99;
 
+    // Characters that need a SHIFT key when typed
+    public static final String UK_SHIFT_CHARS = "!\"#$%&'()*=@[\\+]<>?_";
+    public static final String US_SHIFT_CHARS = "!\"#$%&'()*=@[\\+]<>?_^";
+
+    // Default number of row reads a typed key is held down and up
+    public static final int TYPE_HOLD = 5;
+    public static final int TYPE_GAP = 2;
+
     /*
      * There's no real storage associated with the keyboard, just an 8x8 matrix
      * of key switches.  The system writes a byte to the keyboard address which
@@ -81,8 +106,35 @@ public class Keyboard extends Memory {
     private boolean isUK;
     private Map<Integer,Key> keys;
     private byte[] matrix;
+    private byte[] columns;
     private byte kbport;
-    private boolean paused;
+
+    // Key events waiting for the CPU thread.  Each event is the key's row
+    // and column number with a flag for a press, which keeps the values
+    // small enough to use the cached Integer objects.
+    private Queue<Integer> events;
+    private static final int PRESS = 0x40;
+
+    // Keys waiting to be typed, as key events with a flag for SHIFT.  The
+    // key being typed is only used by the CPU thread.
+    private Queue<Integer> typed;
+    private static final int SHIFT = 0x80;
+    private static final int NONE = -1;
+    private String shiftChars;
+    private int typeKey, typeCount;
+    private boolean typeDown;
+    private int typeHold, typeGap;
+
+    // SHIFT LOCK is held down while typing, whatever position the user has
+    // left it in, and put back to that position afterwards.
+    private int lockEvent;
+    private boolean lockDown, lockHeld;
+
+    // Input latency measurement.  The column results from before a key
+    // event are kept to find the first read that sees the change.
+    private Latency probe;
+    private byte[] probeColumns;
+    private boolean probeWaiting;
 
     public Keyboard(String type) {
         super(K1);                  // Decodes to 1K of store
@@ -98,6 +150,13 @@ public class Keyboard extends Memory {
         for (int i = 0; i < matrix.length; i++) {
             matrix[i] = (byte)0xFF;
         }
+        columns = new byte[256];
+        events = new ConcurrentLinkedQueue<Integer>();
+        typed = new ConcurrentLinkedQueue<Integer>();
+        shiftChars = isUK ? UK_SHIFT_CHARS : US_SHIFT_CHARS;
+        typeKey = NONE;
+        typeHold = TYPE_HOLD;
+        typeGap = TYPE_GAP;
 
         // Define the supported keys
         keys = new HashMap<Integer,Key>();
@@ -164,60 +223,197 @@ public class Keyboard extends Memory {
         }
 
         // Start with SHIFTKOCK pressed
+        lockEvent = keys.get(KEY_SHIFTLOCK).event;
         pressKey(KEY_SHIFTLOCK);
+        applyEvents();
     }
 
-    public synchronized byte readByte(int offset) {
-        // Returns the column values for any row that has been set to a 0
-        // in a value previously written to the kbport address.
-        byte b = (byte)0xFF;
-        for (int i = 0, k = kbport; i < matrix.length; i++) {
-            if ((k & 1) == 0) {
-                b &= matrix[i];
+    // Returns the column values for any row that has been set to a 0
+    // in a value previously written to the kbport address.  These are
+    // looked up in a table built for every kbport value when keys change.
+    public byte readByte(int offset) {
+        if (typeKey != NONE || !typed.isEmpty()) {
+            typeAhead();
+        }
+        if (probeWaiting && columns[kbport & 0xFF] != probeColumns[kbport & 0xFF]) {
+            Latency p = probe;
+            if (p != null) {
+                p.keyRead();
             }
-            k >>= 1;
+            probeWaiting = false;
         }
-        return b;
+        return columns[kbport & 0xFF];
     }
 
-    public synchronized void writeByte(int offset, byte b) {
+    public void writeByte(int offset, byte b) {
         kbport = b;
     }
 
     /*
-     * Handle key presses and releases.
-     * Note we suspend processing key strokes when the CPU is paused for timing
-     * control, as those keys actions might get lost.
+     * Handle key presses and releases, which are just queued for the CPU
+     * thread.  Unknown keys are ignored.
      */
-    public synchronized void pressKey(int key) {
-    	try {
-    	    if (paused) wait();
-	        Key k = keys.get(key);
-	        if (k != null) {
-	            matrix[k.row] &= ~k.col;
-	        }
-    	} catch (InterruptedException e) {
-    	}
+    public void pressKey(int key) {
+        Key k = keys.get(key);
+        if (k != null) {
+            events.offer(PRESS | k.event);
+        }
     }
 
-    public synchronized void releaseKey(int key) {
-    	try {
-    		if (paused) wait();
-            Key k = keys.get(key);
-	        if (k != null) {
-	            matrix[k.row] |= k.col;
-	        }
-    	} catch (InterruptedException e) {
-    	}
+    public void releaseKey(int key) {
+        Key k = keys.get(key);
+        if (k != null) {
+            events.offer(k.event);
+        }
     }
-    
-    public synchronized void pause(boolean state) {
-    	paused = state;
-    	if (!paused) {
-    		notifyAll();
-    	}
+
+    /*
+     * Called by the CPU thread between instructions to apply any queued
+     * key events to the matrix.
+     */
+    public void applyEvents() {
+        if (!events.isEmpty()) {
+            Latency p = probe;
+            if (p != null && p.waitingForRead()) {
+                System.arraycopy(columns, 0, probeColumns, 0, columns.length);
+                probeWaiting = true;
+            }
+            for (Integer e = events.poll(); e != null; e = events.poll()) {
+                setMatrix(e, (e & PRESS) != 0);
+                if ((e & ~PRESS) == lockEvent)
+                    lockDown = (e & PRESS) != 0;
+            }
+            if (lockHeld)
+                setMatrix(lockEvent, true);
+            buildColumns();
+        }
     }
-    
+
+    /*
+     * Measure the latency of key events, or stop if the probe is null
+     */
+    public void setProbe(Latency probe) {
+        if (probeColumns == null) {
+            probeColumns = new byte[columns.length];
+        }
+        probeWaiting = false;
+        this.probe = probe;
+    }
+
+    /*
+     * Type some text.  The characters are mapped to keys the same way as
+     * characters typed on the PC keyboard in normal mode, and a newline is
+     * RETURN.  Characters with no matching key are ignored.  Letters are
+     * typed with SHIFT LOCK down, so they come out as capitals whatever
+     * position the lock is in.
+     */
+    public void type(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            Key k = null;
+            if (c == '\n')
+                k = keys.get(KEY_RETURN);
+            else if (c == ' ' || c == '\t')
+                k = keys.get(KEY_SPACE);
+            else if (c > 32 && c < 127)
+                k = keys.get((int)c);
+            if (k != null) {
+                typed.offer((shiftChars.indexOf(c) != -1) ? SHIFT | k.event : k.event);
+            }
+        }
+    }
+
+    /*
+     * Throw away any text still waiting to be typed.  The key currently
+     * being typed is completed.
+     */
+    public void cancelTyping() {
+        typed.clear();
+    }
+
+    public boolean isTyping() {
+        return !typed.isEmpty();
+    }
+
+    /*
+     * Set the number of reads of a typed key's row that it is held down
+     * for, and then held up for before the next key.
+     */
+    public void setTypeRate(int hold, int gap) {
+        typeHold = Math.max(hold, 1);
+        typeGap = Math.max(gap, 1);
+    }
+
+    // Called by the CPU thread on each keyboard read while typing.  Starts
+    // the next key, or counts the reads that see the current key's row and
+    // releases it or moves on to the next key when the count is reached.
+    private void typeAhead() {
+        if (typeKey != NONE && typeCount == 0) {
+            if (typeDown) {
+                setTypedKey(false);
+                typeCount = typeGap;
+            } else {
+                typeKey = NONE;
+            }
+        }
+        if (typeKey == NONE) {
+            Integer k = typed.poll();
+            if (k == null) {
+                holdLock(false);
+                return;
+            }
+            holdLock(true);
+            typeKey = k;
+            typeCount = typeHold;
+            setTypedKey(true);
+        }
+        if ((kbport & (1 << ((typeKey >> 3) & 7))) == 0) {
+            typeCount -= 1;
+        }
+    }
+
+    // Hold SHIFT LOCK down while typing, or put it back to where the user
+    // left it.
+    private void holdLock(boolean hold) {
+        if (hold != lockHeld) {
+            lockHeld = hold;
+            setMatrix(lockEvent, hold || lockDown);
+            buildColumns();
+        }
+    }
+
+    private void setTypedKey(boolean down) {
+        typeDown = down;
+        setMatrix(typeKey & 0x3F, down);
+        if ((typeKey & SHIFT) != 0) {
+            setMatrix(keys.get(KEY_LSHIFT).event, down);
+        }
+        buildColumns();
+    }
+
+    private void setMatrix(int event, boolean down) {
+        int row = (event >> 3) & 7;
+        byte col = (byte)(1 << (event & 7));
+        if (down) {
+            matrix[row] &= ~col;
+        } else {
+            matrix[row] |= col;
+        }
+    }
+
+    // Work out the column values for every possible kbport value
+    private void buildColumns() {
+        for (int k = 0; k < columns.length; k++) {
+            byte b = (byte)0xFF;
+            for (int i = 0; i < matrix.length; i++) {
+                if ((k & (1 << i)) == 0) {
+                    b &= matrix[i];
+                }
+            }
+            columns[k] = b;
+        }
+    }
+
 
     // Add details of a key
     private void addKey(int k1, int k2, int row, int col) {
@@ -237,10 +433,9 @@ public class Keyboard extends Memory {
      * Representation of the key
      */
     private static class Key {
-        int row;  byte col;
+        int event;
         Key(int r, int c) {
-            row = r;
-            col = (byte)(1<<c);
+            event = (r << 3) | c;
         }
     }
 
@@ -252,7 +447,7 @@ public class Keyboard extends Memory {
         s.append(Data.toBinaryString(kbport)).append(" [");
         for (int i = 0; i < matrix.length; i++)
             s.append(" ").append(Data.toBinaryString(matrix[i]));
-        s.append("] = ").append(Data.toBinaryString(readByte(0)));
+        s.append("] = ").append(Data.toBinaryString(columns[kbport & 0xFF]));
         return s.toString();
     }
 }
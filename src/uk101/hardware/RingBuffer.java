@@ -0,0 +1,110 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.hardware;
+
+/**
+ * A fixed size byte queue for passing data from exactly one producer thread
+ * to exactly one consumer thread without locking.
+ *
+ * The head count is only changed by the producer and the tail count is only
+ * changed by the consumer.  Both are volatile so a byte stored in the buffer
+ * is visible to the consumer before the head count that covers it.  The
+ * counts are allowed to wrap, only their difference is used.
+ *
+ * The size checks are only exact for the producer, the consumer should use
+ * peek to find if there is anything to read.  The size does not count bytes
+ * waiting to be discarded, but they still fill the buffer until the consumer
+ * has skipped them.
+ */
+class RingBuffer {
+
+    private byte[] buffer;
+    private int mask;
+    private volatile int head, tail;
+    private volatile int discardMark, discardCount, discardDone;
+    private int discardSeen;
+
+    // The size is rounded up to a power of two
+    RingBuffer(int size) {
+        int n = 1;
+        while (n < size)
+            n <<= 1;
+        buffer = new byte[n];
+        mask = n - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public int size() {
+        if (discardCount != discardDone) {
+            int d = discardMark;
+            if (d - tail > 0)
+                return head - d;
+        }
+        return head - tail;
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    public boolean isFull() {
+        return head - tail == buffer.length;
+    }
+
+    /*
+     * Producer side
+     */
+
+    public boolean offer(int b) {
+        int h = head;
+        if (h - tail == buffer.length)
+            return false;
+        buffer[h & mask] = (byte)b;
+        head = h + 1;
+        return true;
+    }
+
+    // Ask for everything added so far to be thrown away.  The consumer
+    // skips the bytes the next time it looks at the buffer.
+    public void discard() {
+        discardMark = head;
+        discardCount += 1;
+    }
+
+    /*
+     * Consumer side, both return -1 if the buffer is empty
+     */
+
+    public int peek() {
+        int t = skip();
+        return (t == head) ? -1 : buffer[t & mask] & 0xFF;
+    }
+
+    public int poll() {
+        int t = skip();
+        if (t == head)
+            return -1;
+        int b = buffer[t & mask] & 0xFF;
+        tail = t + 1;
+        return b;
+    }
+
+    private int skip() {
+        int t = tail;
+        if (discardCount != discardSeen) {
+            discardSeen = discardCount;
+            int d = discardMark;
+            if (t - d < 0) {
+                tail = t = d;
+            }
+            discardDone = discardSeen;
+        }
+        return t;
+    }
+}
@@ -1,14 +1,15 @@
 /**
  * Compukit UK101 Simulator
  *
- * (C) Copyright Tim Baldwin 2010
+ * (C) Copyright Tim Baldwin 2010,2022
  */
 package uk101.hardware;
 
 import java.io.IOException;
 import java.util.Arrays;
 
-import uk101.view.VideoView;
+import uk101.hardware.bus.VideoBus;
+import uk101.machine.Latency;
 
 /**
  * Video is memory mapped starting at D000.  Standard screen was 16 rows of 64
@@ -42,11 +43,16 @@ public class Video extends RAM {
 
     /*
      * Processing of the video is fairly simple here as we delegate most of the
-     * work of actually displaying something to the user to VideoView module.
+     * work of actually displaying something to the user to the VideoView
+     * module, or any other VideoBus display.
      */
 
     public void writeByte(int offset, byte b) {
         super.writeByte(offset, b);
+        Latency p = probe;
+        if (p != null) {
+            p.videoWrite();
+        }
         if (view != null) {
             view.updateVideo(offset, b);
         }
@@ -56,12 +62,30 @@ public class Video extends RAM {
      * GUI visualisation
      */
 
-    private VideoView view;
+    private VideoBus view;
 
-    public void setView(VideoView view) {
+    public void setView(VideoBus view) {
         this.view = view;
     }
 
+    public VideoBus getView() {
+        return view;
+    }
+
+    /*
+     * Input latency measurement
+     */
+
+    private Latency probe;
+
+    public void setProbe(Latency probe) {
+        this.probe = probe;
+    }
+
+    public Latency getProbe() {
+        return probe;
+    }
+
     /*
      * Mainly for debugging
      */
@@ -1,7 +1,7 @@
 /**
  * Compukit UK101 Simulator
  *
- * (C) Copyright Tim Baldwin 2010,2021
+ * (C) Copyright Tim Baldwin 2010,2022
  */
 package uk101.hardware.bus;
 
@@ -17,5 +17,5 @@ public interface DataBus {
     
     public byte traceByte(int addr);                // Read for trace
     
-    public void pause(boolean state);				// Signal pause state
+    public void update();                           // Apply input between instructions
 }
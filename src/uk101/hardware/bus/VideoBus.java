@@ -0,0 +1,15 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.hardware.bus;
+
+/**
+ * The VideoBus provides a method for the video RAM to pass changes on
+ * to a display (such as the video window).
+ */
+public interface VideoBus {
+
+    public void updateVideo(int addr, byte b);  // Video RAM has been written
+}
@@ -1,7 +1,7 @@
 /**
  * Compukit UK101 Simulator
  *
- * (C) Copyright Tim Baldwin 2014,2017
+ * (C) Copyright Tim Baldwin 2014,2022
  */
 package uk101.io;
 
@@ -23,7 +23,7 @@ public abstract class AudioDecoder {
     /*
      * Default AudioFormat only gets used if recording directly from the
      * sound card, otherwise format is provided when setting the input stream.
-     * Format must be linear PCM with signed big-endian data.
+     * Format must be linear PCM, signed or unsigned and in either byte order.
      */
 
     protected AudioDecoder(int phase) {
@@ -39,6 +39,18 @@ public abstract class AudioDecoder {
         channels = audioFormat.getChannels();
         bytesPerFrame = audioFormat.getFrameSize();
         bytesPerChannel = bytesPerFrame/channels;
+        bigEndian = audioFormat.isBigEndian();
+        unsigned = audioFormat.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED);
+
+        frames = new byte[BLOCK_SIZE*bytesPerFrame];
+        samples = new int[BLOCK_SIZE];
+        sampleCount = sampleIndex = partial = 0;
+    }
+
+    // Formats that can be decoded without conversion
+    public static boolean isSupported(AudioFormat format) {
+        return format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED)
+            || format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED);
     }
 
     public AudioFormat getFormat() {
@@ -46,15 +58,47 @@ public abstract class AudioDecoder {
     }
 
     /*
-     * Return the next data sample from the input stream.  This assumes
-     * a signed big-endian format and averages the value for all channels.
+     * Number of decoded bytes to read ahead of the processor, zero if
+     * decoding should be done when each byte is read.
+     */
+    public void setReadAhead(int size) {
+        readAhead = size;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /*
+     * Position in the input, as the number of frames read so far
      */
+    public long getPosition() {
+        return position;
+    }
+
+    /*
+     * Return the next data sample from the input stream.  The input is read
+     * a block of frames at a time and converted to a block of samples, with
+     * the value for all channels averaged.
+     */
+
+    // Number of frames read at a time
+    static final int BLOCK_SIZE = 4096;
+
+    private int readAhead;
+    private long position;
 
     private int bytesPerFrame, bytesPerChannel, channels;
+    private boolean bigEndian, unsigned;
     private boolean phaseShift, phaseInvert;
     private boolean hasNextSample;
     private int nextSample;
 
+    private byte[] frames;
+    private int[] samples;
+    private int sampleCount, sampleIndex;
+    private int partial;
+
     protected int peekSample(boolean invert) throws IOException {
         if (!hasNextSample) {
             nextSample = nextSample();
@@ -70,23 +114,64 @@ public abstract class AudioDecoder {
     }
 
     private int nextSample() throws IOException {
-        byte[] frame = new byte[bytesPerFrame];
-        if (inputStream.read(frame) != bytesPerFrame)
-            throw new EOFException();
-
-        int total = 0, count = 0;
-        for (int i = 0, k = 0; i < channels; i++) {
-            int a = frame[k++];
-            for (int j = 1; j < bytesPerChannel; j++) {
-                a = (a<<8)|(frame[k++]&0xFF);
-            }
-            if (a != 0) {       // Try to ignore blank channels
-               total += a;
-               count += 1;
-            }
+        if (sampleIndex == sampleCount) {
+            readBlock();
+        }
+        position += 1;
+        return samples[sampleIndex++];
+    }
+
+    // Read as many whole frames as the stream has ready, up to a block.  Any
+    // part of a frame left over is kept for the next block.
+    private void readBlock() throws IOException {
+        int n = partial;
+        while (n < bytesPerFrame) {
+            int r = inputStream.read(frames, n, frames.length-n);
+            if (r == -1)
+                throw new EOFException();
+            n += r;
         }
+        sampleCount = n/bytesPerFrame;
+        sampleIndex = 0;
+        partial = n - sampleCount*bytesPerFrame;
+        System.arraycopy(frames, sampleCount*bytesPerFrame, frames, 0, partial);
+
+        if (channels == 1 && bytesPerChannel == 2 && !unsigned) {
+            convert16(sampleCount);
+        } else {
+            convert(sampleCount);
+        }
+    }
 
-        return (count == 0) ? 0 : total/count;
+    // The usual 16-bit mono format
+    private void convert16(int count) {
+        int hi = bigEndian ? 0 : 1, lo = 1-hi;
+        for (int i = 0, k = 0; i < count; i++, k += 2) {
+            samples[i] = (frames[k+hi]<<8)|(frames[k+lo]&0xFF);
+        }
+    }
+
+    // Any other format, averaging the channels
+    private void convert(int count) {
+        int first = bigEndian ? 0 : bytesPerChannel-1;
+        int step = bigEndian ? 1 : -1;
+        int sign = unsigned ? 0x80 : 0;
+        for (int i = 0, k = 0; i < count; i++) {
+            int total = 0, used = 0;
+            for (int c = 0; c < channels; c++, k += bytesPerChannel) {
+                int j = k+first;
+                int a = (byte)(frames[j]^sign);
+                for (int b = 1; b < bytesPerChannel; b++) {
+                    j += step;
+                    a = (a<<8)|(frames[j]&0xFF);
+                }
+                if (a != 0) {       // Try to ignore blank channels
+                    total += a;
+                    used += 1;
+                }
+            }
+            samples[i] = (used == 0) ? 0 : total/used;
+        }
     }
 
     /*
@@ -0,0 +1,153 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import uk101.machine.Computer;
+
+/**
+ * An input stream that reads (and for audio tapes, decodes) its source on
+ * a separate thread, keeping a fixed number of bytes ready.  Reading from
+ * this stream then only has to take the next byte from the buffer, so a
+ * slow decode does not hold up whoever is reading the tape.
+ *
+ * Each byte is kept with its position in the source: the audio frame the
+ * byte ended at for a WaveInputStream, otherwise the byte offset.  A read
+ * that finds the buffer empty before the end of the source is counted as
+ * an underrun.
+ */
+public class ReadAheadInputStream extends InputStream implements Runnable {
+
+    private InputStream source;
+    private int[] bytes;
+    private long[] positions;
+    private int head, count;
+    private boolean end, closed;
+    private IOException error;
+
+    // Statistics
+    private long position;
+    private long read, underruns;
+
+    public ReadAheadInputStream(InputStream in, int size) {
+        source = in;
+        bytes = new int[Math.max(size, 1)];
+        positions = new long[bytes.length];
+
+        Thread decoder = new Thread(this, "TapeDecoder");
+        decoder.setDaemon(true);
+        decoder.start();
+    }
+
+    public InputStream getSource() {
+        return source;
+    }
+
+    /*
+     * Take the next byte from the buffer, waiting if it is empty.  Once the
+     * stream has been closed there is nothing more to read.
+     */
+    public synchronized int read() throws IOException {
+        if (count == 0 && !end && !closed) {
+            underruns += 1;
+            while (count == 0 && !end && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+        if (closed)
+            return -1;
+        if (count == 0) {
+            if (error != null)
+                throw error;
+            return -1;
+        }
+        int b = bytes[head];
+        position = positions[head];
+        head = (head + 1) % bytes.length;
+        count -= 1;
+        read += 1;
+        notifyAll();
+        return b;
+    }
+
+    public synchronized int available() {
+        return closed ? 0 : count;
+    }
+
+    // The decoder thread closes the source when it sees the stream has been
+    // closed, so closing does not have to wait for a decode to finish.  Any
+    // reader waiting for the decoder is given the end of the stream.
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+        if (Computer.debug) {
+            System.out.println("Tape read-ahead: " + read + " bytes read to position " + position + ", " + underruns + " underruns");
+        }
+    }
+
+    /*
+     * Position in the source of the last byte read, and statistics
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    public synchronized long getUnderruns() {
+        return underruns;
+    }
+
+    /*
+     * Decoder thread, fill the buffer until the end of the source
+     */
+    public void run() {
+        long offset = 0;
+        try {
+            while (true) {
+                int b = source.read();
+                offset += 1;
+                long pos = (source instanceof WaveInputStream) ? ((WaveInputStream)source).getPosition() : offset;
+                synchronized (this) {
+                    while (count == bytes.length && !closed) {
+                        wait();
+                    }
+                    if (closed)
+                        break;
+                    if (b == -1) {
+                        end = true;
+                        notifyAll();
+                        while (!closed) {
+                            wait();
+                        }
+                        break;
+                    }
+                    int tail = (head + count) % bytes.length;
+                    bytes[tail] = b;
+                    positions[tail] = pos;
+                    count += 1;
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                error = e;
+                end = true;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+        }
+
+        try {
+            source.close();
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+}
@@ -62,6 +62,9 @@ public class Tape {
                 in = new FileInputStream(file);
             } else if (format == STREAM_AUDIO) {
                 in = new WaveInputStream(new FileInputStream(file), dec);
+                if (dec.getReadAhead() > 0) {
+                    in = new ReadAheadInputStream(in, dec.getReadAhead());
+                }
             }
         } catch (IOException e) {
             System.err.println(e);
@@ -99,6 +102,8 @@ public class Tape {
      * Return the format of an input/output stream 
      */
     public static int getFormat(InputStream stream) {
+        if (stream instanceof ReadAheadInputStream)
+            stream = ((ReadAheadInputStream)stream).getSource();
         return (stream instanceof WaveInputStream) ? STREAM_AUDIO :
                 (stream instanceof UK101InputStream) ? STREAM_ASCII : STREAM_BINARY;
     }
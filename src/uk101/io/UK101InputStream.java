@@ -90,6 +90,12 @@ public class UK101InputStream extends InputStream {
         return ch;
     }
 
+    // A character can be read without waiting while part of a line is left,
+    // otherwise only if the reader has more ready.
+    public int available() throws IOException {
+        return (line != null || inputReader.ready()) ? 1 : 0;
+    }
+
     public void close() throws IOException {
         inputReader.close();
     }
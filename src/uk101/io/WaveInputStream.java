@@ -1,7 +1,7 @@
 /**
  * Compukit UK101 Simulator
  *
- * (C) Copyright Tim Baldwin 2014
+ * (C) Copyright Tim Baldwin 2014,2022
  */
 package uk101.io;
 
@@ -32,12 +32,18 @@ public class WaveInputStream extends InputStream {
         AudioInputStream audio = AudioSystem.getAudioInputStream(new BufferedInputStream(in));
         AudioFormat af1 = audio.getFormat();
 
-        // The AudioDecoder requires PCM data in signed big-endian format.  The AudioSystem
-        // should be able to convert the input to a suitable format, provided we keep all
-        // the other parameters (such as sample rate, frame size, etc) the same.
-        AudioFormat af2 = new AudioFormat(af1.getSampleRate(), af1.getSampleSizeInBits(), af1.getChannels(), true, true);
-        inputStream = AudioSystem.getAudioInputStream(af2, audio);
-        audioDecoder.setInputStream(inputStream, af2);
+        // The AudioDecoder reads PCM data, as WAV files normally hold, directly.  For
+        // anything else the AudioSystem should be able to convert the input to signed
+        // big-endian PCM, provided we keep all the other parameters (such as sample
+        // rate, frame size, etc) the same.
+        if (AudioDecoder.isSupported(af1)) {
+            inputStream = audio;
+            audioDecoder.setInputStream(inputStream, af1);
+        } else {
+            AudioFormat af2 = new AudioFormat(af1.getSampleRate(), af1.getSampleSizeInBits(), af1.getChannels(), true, true);
+            inputStream = AudioSystem.getAudioInputStream(af2, audio);
+            audioDecoder.setInputStream(inputStream, af2);
+        }
         audioDecoder.decodeStart();
     }
 
@@ -49,6 +55,11 @@ public class WaveInputStream extends InputStream {
         return audioDecoder.decodeByte();
     }
 
+    // Position in audio frames
+    public long getPosition() {
+        return audioDecoder.getPosition();
+    }
+
     public void close() throws IOException {
         audioDecoder.decodeEnd();
         inputStream.close();
@@ -0,0 +1,376 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import uk101.hardware.bus.DataBus;
+
+/**
+ * Knowledge of the standard UK101 BASIC interpreter (BASUK101) and the way
+ * it stores programs in memory.  This can be used with a running machine
+ * or with a saved copy of the address space.
+ *
+ * Program lines are stored from TXTTAB onwards, each line being:
+ *   - a 2-byte link to the next line (zero at the end of the program)
+ *   - a 2-byte line number
+ *   - the tokenised text of the line, ending with a zero byte
+ */
+public class Basic {
+
+    // Zero page locations used by the interpreter
+    public static final int TXTTAB = 0x79;      // Start of program
+    public static final int VARTAB = 0x7B;      // Start of variables
+    public static final int ARYTAB = 0x7D;      // Start of arrays
+    public static final int STREND = 0x7F;      // End of arrays
+    public static final int FRETOP = 0x81;      // Bottom of string space
+    public static final int MEMSIZ = 0x85;      // Top of memory
+    public static final int CURLIN = 0x87;      // Current line number
+    public static final int DATPTR = 0x8F;      // DATA pointer
+    public static final int TXTPTR = 0xC3;      // Program text pointer
+
+    // Interpreter addresses
+    public static final int READY = 0xA274;     // Return to direct mode
+    public static final int DISPATCH = 0xA5F9;  // Execute the next statement
+    public static final int GOSUB = 0xA69C;     // GOSUB statement
+    public static final int RETURN = 0xA6E6;    // RETURN statement
+    static final int STATEMENTS = 0xA000;       // Statement address table
+    static final int KEYWORDS = 0xA084;         // Keyword table
+
+    // CURLIN is set to $FFxx for direct mode commands
+    public static final int DIRECT = 0xFF00;
+
+    // Tokens start at $80 for the first keyword
+    static final int TOKEN = 0x80;
+
+    // Bytes that identify the interpreter: the statement dispatch code, the
+    // GOSUB and RETURN statement table entries and the start of the keyword
+    // table.
+    static final int[][] SIGNATURE = {
+        { 0xA5F6, 0x20, 0xBC, 0x00, 0x20, 0xFF, 0xA5 },
+        { 0xA018, 0x9B, 0xA6, 0xE5, 0xA6 },
+        { KEYWORDS, 'E', 'N', 'D'|0x80, 'F', 'O', 'R'|0x80 },
+    };
+
+    private DataBus bus;
+    private byte[] store;
+    private String[] keywords;
+
+    public Basic(DataBus bus) {
+        this.bus = bus;
+    }
+
+    public Basic(byte[] store) {
+        this.store = store;
+    }
+
+    /*
+     * Check the expected BASIC interpreter is installed
+     */
+    public boolean recognised() {
+        for (int[] sig : SIGNATURE) {
+            for (int i = 1; i < sig.length; i++) {
+                if (peek(sig[0]+i-1) != sig[i])
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The BASIC keywords, indexed by token value less $80
+     */
+    public String[] keywords() {
+        if (keywords == null) {
+            String[] words = new String[128];
+            int addr = KEYWORDS;
+            int n = 0;
+            while (n < words.length && peek(addr) != 0) {
+                StringBuilder sb = new StringBuilder();
+                int b;
+                do {
+                    b = peek(addr++);
+                    sb.append((char)(b & 0x7F));
+                } while ((b & 0x80) == 0);
+                words[n++] = sb.toString();
+            }
+            keywords = new String[n];
+            System.arraycopy(words, 0, keywords, 0, n);
+        }
+        return keywords;
+    }
+
+    /*
+     * The program currently in memory, as a map of line number to line text.
+     * Stop if the line links look broken, as they will if there is no valid
+     * program in memory.
+     */
+    public Map<Integer,String> listing() {
+        Map<Integer,String> lines = new LinkedHashMap<Integer,String>();
+        int addr = peekWord(TXTTAB);
+        int last = -1;
+        while (addr > 0 && addr < STATEMENTS) {
+            int next = peekWord(addr);
+            int line = peekWord(addr+2);
+            if (next == 0 || next <= addr || line <= last)
+                break;
+            lines.put(line, detokenise(addr+4));
+            last = line;
+            addr = next;
+        }
+        return lines;
+    }
+
+    // Expand the tokenised line text starting at an address
+    public String detokenise(int addr) {
+        String[] words = keywords();
+        StringBuilder sb = new StringBuilder();
+        for (int b = peek(addr); b != 0 && addr < STATEMENTS; b = peek(++addr)) {
+            if (b >= TOKEN && b < TOKEN+words.length) {
+                sb.append(words[b-TOKEN]);
+            } else if (b >= 32 && b < 127) {
+                sb.append((char)b);
+            } else {
+                sb.append(String.format("\\%02X", b));
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Write the program in the same form as LIST would, with CR LF line
+     * ends, so it can be written to a tape and read back.  Returns the
+     * number of lines written.
+     */
+    public int save(OutputStream out) throws IOException {
+        String[] words = keywords();
+        int count = 0;
+        int addr = peekWord(TXTTAB);
+        int last = -1;
+        while (addr > 0 && addr < STATEMENTS) {
+            int next = peekWord(addr);
+            int line = peekWord(addr+2);
+            if (next == 0 || next <= addr || line <= last)
+                break;
+            write(out, " " + line + " ");
+            for (int a = addr+4, b = peek(a); b != 0 && a < STATEMENTS; b = peek(++a)) {
+                if (b >= TOKEN && b < TOKEN+words.length) {
+                    write(out, words[b-TOKEN]);
+                } else {
+                    out.write(b);
+                }
+            }
+            out.write('\r');
+            out.write('\n');
+            count += 1;
+            last = line;
+            addr = next;
+        }
+        out.flush();
+        return count;
+    }
+
+    private static void write(OutputStream out, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    /*
+     * Convert the text of a line to the tokenised form the interpreter would
+     * store, following the rules of the interpreter's own tokeniser:
+     *   - spaces, digits, ':' and ';' are stored as they are
+     *   - '?' is short for PRINT
+     *   - keywords are matched in keyword table order, not longest first
+     *   - strings, DATA statements (up to a ':') and REM statements are
+     *     stored as they are
+     */
+    public byte[] tokenise(String text) {
+        String[] words = keywords();
+        int print = token(words, "PRINT");
+        int data = token(words, "DATA");
+        int rem = token(words, "REM");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean inData = false;
+        int i = 0;
+        while (i < text.length()) {
+            int b = text.charAt(i++) & 0xFF;
+            if (b == '"') {
+                out.write(b);
+                while (i < text.length()) {
+                    int c = text.charAt(i++) & 0xFF;
+                    out.write(c);
+                    if (c == '"')
+                        break;
+                }
+                continue;
+            }
+            if (b != ' ' && !inData && (b < '0' || b > ';')) {
+                if (b == '?') {
+                    b = print;
+                } else {
+                    for (int k = 0; k < words.length; k++) {
+                        if (text.startsWith(words[k], i-1)) {
+                            b = TOKEN + k;
+                            i += words[k].length()-1;
+                            break;
+                        }
+                    }
+                }
+            }
+            out.write(b);
+            if (b == ':') {
+                inData = false;
+            } else if (b == data) {
+                inData = true;
+            } else if (b == rem) {
+                while (i < text.length()) {
+                    out.write(text.charAt(i++) & 0xFF);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static int token(String[] words, String word) {
+        for (int k = 0; k < words.length; k++) {
+            if (words[k].equals(word))
+                return TOKEN + k;
+        }
+        return -1;
+    }
+
+    /*
+     * Check the interpreter is waiting for a direct command, so it is safe to
+     * replace the program.
+     */
+    public boolean ready() {
+        return recognised() && (peekWord(CURLIN) & DIRECT) == DIRECT;
+    }
+
+    /*
+     * Replace the program in memory with a listing, as NEW followed by typing
+     * the lines would.  Lines are stored in line number order and a line with
+     * no text deletes the line.  The pointers are then reset as the
+     * interpreter does after a line is entered, so the program is ready to
+     * RUN.  Returns the number of lines stored, or -1 if the program does not
+     * fit in memory (in which case memory is not changed).
+     */
+    public int load(Map<Integer,String> listing) {
+        Map<Integer,String> lines = new TreeMap<Integer,String>(listing);
+        int start = peekWord(TXTTAB);
+        int limit = peekWord(MEMSIZ);
+
+        // Build the program first to check it will fit
+        ByteArrayOutputStream program = new ByteArrayOutputStream();
+        int count = 0;
+        for (Map.Entry<Integer,String> line : lines.entrySet()) {
+            if (line.getValue().length() > 0) {
+                byte[] text = tokenise(line.getValue());
+                int next = start + program.size() + 4 + text.length + 1;
+                program.write(next & 0xFF);
+                program.write(next >> 8);
+                program.write(line.getKey() & 0xFF);
+                program.write(line.getKey() >> 8);
+                program.write(text, 0, text.length);
+                program.write(0);
+                count += 1;
+            }
+        }
+        program.write(0);
+        program.write(0);
+
+        // The interpreter leaves a spare byte after the end of the program
+        // when lines are entered.
+        int end = start + program.size() + ((count > 0) ? 1 : 0);
+        if (end >= limit)
+            return -1;
+
+        byte[] bytes = program.toByteArray();
+        for (int i = 0; i < bytes.length; i++) {
+            poke(start+i, bytes[i]);
+        }
+        pokeWord(VARTAB, end);
+        pokeWord(ARYTAB, end);
+        pokeWord(STREND, end);
+        pokeWord(FRETOP, limit);
+        pokeWord(DATPTR, start-1);
+        pokeWord(TXTPTR, start-1);
+        return count;
+    }
+
+    /*
+     * Read a program listing in the form it would be typed in or loaded from
+     * tape, as a map of line number to line text.  Anything not starting with
+     * a line number is ignored.
+     */
+    public static Map<Integer,String> readListing(InputStream in) throws IOException {
+        Map<Integer,String> lines = new LinkedHashMap<Integer,String>();
+        StringBuilder sb = new StringBuilder();
+        for (int b = in.read(); b != -1; b = in.read()) {
+            if (b == '\r' || b == '\n') {
+                addLine(lines, sb.toString());
+                sb.setLength(0);
+            } else if (b != 0) {
+                sb.append((char)(b & 0xFF));
+            }
+        }
+        addLine(lines, sb.toString());
+        return lines;
+    }
+
+    // The interpreter skips spaces before and after the line number, but
+    // keeps any at the end of the line.
+    private static void addLine(Map<Integer,String> lines, String s) {
+        int start = skipSpaces(s, 0);
+        int i = start;
+        while (i < s.length() && i-start < 5 && Character.isDigit(s.charAt(i)))
+            i++;
+        if (i > start) {
+            int line = Integer.parseInt(s.substring(start, i));
+            if (line < 64000)
+                lines.put(line, s.substring(skipSpaces(s, i)));
+        }
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && s.charAt(i) == ' ')
+            i++;
+        return i;
+    }
+
+    /*
+     * Memory access
+     */
+    public int peek(int addr) {
+        byte b = (store != null) ? store[addr & 0xFFFF] : bus.traceByte(addr & 0xFFFF);
+        return b & 0xFF;
+    }
+
+    public int peekWord(int addr) {
+        return peek(addr) + (peek(addr+1) << 8);
+    }
+
+    public void poke(int addr, int b) {
+        if (store != null) {
+            store[addr & 0xFFFF] = (byte)b;
+        } else {
+            bus.writeByte(addr & 0xFFFF, (byte)b);
+        }
+    }
+
+    public void pokeWord(int addr, int w) {
+        poke(addr, w);
+        poke(addr+1, w >> 8);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.io.Serializable;
+
+import uk101.hardware.Memory;
+
+/**
+ * Profile of a program running under the BASIC interpreter.  The current
+ * line number is read each time the interpreter starts a new statement,
+ * and the CPU cycles used are recorded against each program line and
+ * against the target line of each GOSUB.
+ *
+ * Direct mode commands are not included.
+ */
+public class BasicProfile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Counts indexed by BASIC line number
+    public long[] statements;       // Statements executed
+    public long[] cycles;           // CPU cycles used
+    public long[] gosubs;           // Calls to a GOSUB target
+    public long[] gosubCycles;      // CPU cycles used by the subroutine
+
+    // BASIC GOSUBs can nest up to the limit of the 6502 stack
+    static final int MAX_DEPTH = 64;
+
+    transient private Basic basic;
+    transient private int line;
+    transient private long total;
+    transient private boolean gosub;
+    transient private int[] stackLine;
+    transient private long[] stackStart;
+    transient private int depth;
+    transient private int overflow;     // Calls past the stack limit
+
+    public BasicProfile(Basic basic) {
+        this.basic = basic;
+        statements = new long[Memory.K64];
+        cycles = new long[Memory.K64];
+        gosubs = new long[Memory.K64];
+        gosubCycles = new long[Memory.K64];
+        stackLine = new int[MAX_DEPTH];
+        stackStart = new long[MAX_DEPTH];
+        reset();
+    }
+
+    public void reset() {
+        line = -1;
+        gosub = false;
+        depth = overflow = 0;
+    }
+
+    /*
+     * Count an executed instruction, checking for the interpreter starting
+     * a statement, a GOSUB or a RETURN, or returning to direct mode.
+     */
+    public void count(int pc, int c) {
+        if (pc == Basic.READY) {
+            reset();
+        } else if (pc == Basic.DISPATCH) {
+            statement();
+        } else if (pc == Basic.GOSUB) {
+            gosub = true;
+        } else if (pc == Basic.RETURN) {
+            ret();
+        }
+        total += c;
+        if (line >= 0)
+            cycles[line] += c;
+    }
+
+    // Start of a statement.  If this follows a GOSUB it is the first
+    // statement of the subroutine.
+    private void statement() {
+        int curlin = basic.peekWord(Basic.CURLIN);
+        if (curlin >= Basic.DIRECT) {
+            reset();
+        } else {
+            line = curlin;
+            statements[line] += 1;
+            if (gosub) {
+                gosub = false;
+                gosubs[line] += 1;
+                if (depth < MAX_DEPTH) {
+                    stackLine[depth] = line;
+                    stackStart[depth] = total;
+                    depth += 1;
+                } else {
+                    overflow += 1;
+                }
+            }
+        }
+    }
+
+    // Return from a subroutine.  Cycles are only added for the outermost
+    // call if a subroutine calls itself, and not at all for calls that were
+    // too deep to be recorded.
+    private void ret() {
+        if (overflow > 0) {
+            overflow -= 1;
+        } else if (depth > 0) {
+            depth -= 1;
+            int target = stackLine[depth];
+            for (int i = 0; i < depth; i++) {
+                if (stackLine[i] == target)
+                    return;
+            }
+            gosubCycles[target] += total - stackStart[depth];
+        }
+    }
+
+    // Check if anything was recorded
+    public boolean isEmpty() {
+        for (int i = 0; i < statements.length; i++) {
+            if (statements[i] > 0)
+                return false;
+        }
+        return true;
+    }
+}
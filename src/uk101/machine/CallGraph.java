@@ -0,0 +1,127 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Build a call graph (a tree of subroutine calls) from JSR/RTS and interrupt
+ * entry/RTI instructions, recording the CPU cycles used in each call path.
+ *
+ * Each call is recorded on a shadow stack, along with the value of the
+ * stack pointer before the return address was pushed.  6502 code often
+ * plays tricks with the stack: discarding return addresses using PLA/PLA,
+ * pushing an address and using RTS as a jump, or just resetting the stack
+ * pointer.  So rather than matching each RTS to a call we simply drop any
+ * shadow stack entry whose return address is no longer on the real stack.
+ */
+public class CallGraph implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // The 6502 stack can only hold 128 return addresses
+    static final int MAX_DEPTH = 128;
+
+    /*
+     * Call graph node, one for each distinct call path
+     */
+    public static class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public int entry;           // Subroutine entry address
+        public boolean interrupt;   // Entered by an interrupt
+        public long calls;          // Number of times called
+        public long cycles;         // Cycles used, excluding called subroutines
+        public List<Node> children;
+
+        Node(int entry, boolean interrupt) {
+            this.entry = entry;
+            this.interrupt = interrupt;
+            children = new ArrayList<Node>(0);
+        }
+
+        // Find or add a called subroutine
+        Node child(int addr, boolean irq) {
+            for (int i = 0; i < children.size(); i++) {
+                Node n = children.get(i);
+                if (n.entry == addr && n.interrupt == irq)
+                    return n;
+            }
+            Node n = new Node(addr, irq);
+            children.add(n);
+            return n;
+        }
+
+        // Cycles used, including called subroutines
+        public long inclusive() {
+            long total = cycles;
+            for (Node n : children)
+                total += n.inclusive();
+            return total;
+        }
+    }
+
+    // Root of the call graph is the code not called as a subroutine
+    public Node root;
+
+    // Shadow stack of active calls
+    transient private Node[] stack;
+    transient private int[] stackSP;
+    transient private int depth;
+    transient private Node current;
+
+    public CallGraph() {
+        root = new Node(-1, false);
+        stack = new Node[MAX_DEPTH];
+        stackSP = new int[MAX_DEPTH];
+        reset();
+    }
+
+    // Start again from the top level, following a CPU reset
+    public void reset() {
+        depth = 0;
+        current = root;
+    }
+
+    /*
+     * Subroutine or interrupt entry.  sp is the stack pointer before the
+     * return address was pushed.
+     */
+    public void call(int addr, int sp, boolean irq) {
+        unwind(sp);
+        current = current.child(addr, irq);
+        current.calls += 1;
+        if (depth < MAX_DEPTH) {
+            stack[depth] = current;
+            stackSP[depth] = sp;
+            depth += 1;
+        }
+    }
+
+    /*
+     * Subroutine or interrupt return.  sp is the stack pointer after the
+     * return address was pulled.
+     */
+    public void ret(int sp) {
+        unwind(sp);
+    }
+
+    // Add cycles to the current call
+    public void cycles(int c) {
+        current.cycles += c;
+    }
+
+    // Remove any calls where the return address has been removed from the stack
+    private void unwind(int sp) {
+        if (depth > 0 && stackSP[depth-1] <= sp) {
+            while (depth > 0 && stackSP[depth-1] <= sp) {
+                depth -= 1;
+            }
+            current = (depth > 0) ? stack[depth-1] : root;
+        }
+    }
+}
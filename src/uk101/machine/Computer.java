@@ -6,11 +6,16 @@
 package uk101.machine;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
 
 import uk101.hardware.ACIA6850;
 import uk101.hardware.CPU6502;
+import uk101.hardware.Disk;
 import uk101.hardware.Keyboard;
 import uk101.hardware.Memory;
 import uk101.hardware.NVRAM;
@@ -32,10 +37,13 @@ public class Computer extends Thread implements DataBus {
     public static boolean aciaFix1 = false;
 
     // Monitor versions
-    private static int MONITOR_MONUK01 = 0;
-    private static int MONITOR_MONUK02 = 1;
-    private static int MONITOR_CEGMON = 2;
-    private static int MONITOR_WEMON = 3;
+    static final int MONITOR_MONUK01 = 0;
+    static final int MONITOR_MONUK02 = 1;
+    static final int MONITOR_CEGMON = 2;
+    static final int MONITOR_WEMON = 3;
+
+    // Where each monitor's tape input routine polls the ACIA
+    private static final int[] TAPE_INPUT = { 0xFFCB, 0xFFCB, 0xFB57, 0xFFC7 };
 
     // Version
     public String name;
@@ -48,16 +56,19 @@ public class Computer extends Thread implements DataBus {
     public ROM basic;
     public ROM monitor;
     public ROM[] basicRoms;
+    int monitorType;
 
     public Collection<ROM> roms;
     public Collection<RAM> rams;
     public Collection<NVRAM> nvrams;
+    public Collection<Disk> disks;
 
     public Keyboard keyboard;
     public Video video;
     public ACIA6850 acia;
 
     public TapeRecorder recorder;
+    public SerialPort serial;
 
     public Configuration config;
 
@@ -140,18 +151,32 @@ public class Computer extends Thread implements DataBus {
             addMemory(nvram.address, r);
             nvrams.add(r);
         }
+        disks = new ArrayList<Disk>();
+        for (Configuration.Mem disk : cfg.getDisks()) {
+            Disk d = new Disk(disk.address, disk.name, cfg.getTapeMaxLength());
+            d.setBus(this);
+            addMemory(disk.address, d);
+            disks.add(d);
+        }
 
         // Keyboard, screen and ACIA are memory mapped.
         ROM charset = new ROM(cfg.getRomCharset());
         keyboard = new Keyboard(cfg.getKbdLayout());
         video = new Video(cfg.getVideoRows(), cfg.getVideoCols(), charset);
-        acia = new ACIA6850(cfg.getAciaRate(), getPriority());
+        acia = new ACIA6850(cfg.getAciaRate(), getPriority(), cfg.getAciaMode().equals(Configuration.RING));
+        acia.setClock(cpu);
         addMemory(cfg.getKbdAddr(), keyboard);
         addMemory(cfg.getVideoAddr(), video);
         addMemory(cfg.getAciaAddr(), acia);
 
         // Create a tape recorder to load and save programs and plug it into the ACIA.
-        recorder = new TapeRecorder(acia);
+        recorder = new TapeRecorder(acia, this);
+
+        // Open a serial port for host programs to connect to the ACIA, if
+        // one is configured.
+        if (cfg.getSerialPort() != 0) {
+            serial = new SerialPort(acia, cfg.getSerialPort(), cfg.getSerialMode().equals(Configuration.PACED));
+        }
 
         // Set special flags for some emulation hacks.
         String ms = new String(monitor.store, "US-ASCII");
@@ -162,8 +187,25 @@ public class Computer extends Thread implements DataBus {
             mon = MONITOR_CEGMON;
         else if (ms.contains("WEMON"))      // Looks like WEMON rom
             mon = MONITOR_WEMON;
+        monitorType = mon;
         aciaFix1 = (mon == MONITOR_MONUK01 || mon == MONITOR_MONUK02);
         videoFix1 = (mon == MONITOR_MONUK02);
+
+        // Trap the monitor tape input routine if required.  The routine must
+        // poll the ACIA as expected, so nothing is trapped for a monitor that
+        // has not been recognised.
+        if (cfg.getAciaTrap() > 0 && isPoll(TAPE_INPUT[mon], cfg.getAciaAddr())) {
+            cpu.trap(TAPE_INPUT[mon], cfg.getAciaTrap(), recorder);
+        }
+    }
+
+    // Check for LDA status, LSR A, BCC at an address
+    private boolean isPoll(int addr, int acia) {
+        return Data.asBits(readByte(addr)) == 0xAD
+            && Data.asBits(readByte(addr+1)) == (acia & 0xFF)
+            && Data.asBits(readByte(addr+2)) == (acia >> 8)
+            && Data.asBits(readByte(addr+3)) == 0x4A
+            && Data.asBits(readByte(addr+4)) == 0x90;
     }
 
     // Add some memory into the address space, applying any patches if 
@@ -245,10 +287,10 @@ public class Computer extends Thread implements DataBus {
         return (m != null) ? m.traceByte(addr-m.base) : Data.getHiByte((short)addr);
     }
 
-    // Used by the CPU when pausing so we can suspend actions (mostly keyboard
-    // activity) that might otherwise be lost or missed.
-    public void pause(boolean state) {
-        keyboard.pause(state);
+    // Used by the CPU between instructions to apply input from other threads
+    // (mostly keyboard activity).
+    public void update() {
+        keyboard.applyEvents();
     }
 
     /*
@@ -263,11 +305,19 @@ public class Computer extends Thread implements DataBus {
 
     public void shutdown() {
         trace(false);
+        profile(false);
+        record(false);
         cpu.stop();
         recorder.ejectTape();
+        if (serial != null) {
+            serial.close();
+        }
         for (NVRAM r : nvrams) {
             r.close();
         }
+        for (Disk d : disks) {
+            d.close();
+        }
     }
 
     /*
@@ -291,6 +341,99 @@ public class Computer extends Thread implements DataBus {
         }
     }
 
+    private Profile profile;
+
+    public void profile(boolean enable) {
+        if (enable) {
+            if (profile == null) {
+                profile = new Profile(this);
+                cpu.profile(profile);
+            }
+        } else {
+            if (profile != null) {
+                cpu.profile(null);
+                profile.write();
+                profile = null;
+            }
+        }
+    }
+
+    private ScreenRecorder screenRecorder;
+
+    public void record(boolean enable) {
+        if (enable) {
+            if (screenRecorder == null) {
+                screenRecorder = new ScreenRecorder(this);
+                screenRecorder.start();
+            }
+        } else {
+            if (screenRecorder != null) {
+                screenRecorder.stop();
+                screenRecorder = null;
+            }
+        }
+    }
+
+    private Latency latency;
+
+    public void latency(boolean enable) {
+        if (enable) {
+            if (latency == null) {
+                latency = new Latency();
+                keyboard.setProbe(latency);
+                video.setProbe(latency);
+            }
+        } else {
+            keyboard.setProbe(null);
+            video.setProbe(null);
+            latency = null;
+        }
+    }
+
+    public Latency getLatency() {
+        return latency;
+    }
+
+    /*
+     * Load a BASIC program listing straight into memory, as if it had been
+     * typed in, without going through the ACIA.  The processor is held while
+     * memory is updated.  Returns the number of lines loaded, or -1 if BASIC
+     * is not waiting for a command or the program does not fit.
+     */
+    public int loadBasic(InputStream in) throws IOException {
+        Map<Integer,String> lines = Basic.readListing(in);
+        synchronized (cpu) {
+            Basic b = new Basic(this);
+            if (!b.ready())
+                return -1;
+            return b.load(lines);
+        }
+    }
+
+    /*
+     * Load a machine code tape in monitor format straight into memory.
+     * Returns null if the tape is not in monitor format, otherwise the
+     * loader with the load report.
+     */
+    public MonitorLoader loadMonitor(PushbackInputStream in) throws IOException {
+        MonitorLoader loader = new MonitorLoader(this);
+        return loader.load(in) ? loader : null;
+    }
+
+    /*
+     * Write the BASIC program in memory as a listing, without going through
+     * the ACIA.  Returns the number of lines written, or -1 if BASIC is not
+     * running.
+     */
+    public int saveBasic(OutputStream out) throws IOException {
+        synchronized (cpu) {
+            Basic b = new Basic(this);
+            if (!b.recognised())
+                return -1;
+            return b.save(out);
+        }
+    }
+
     public void dump() {
         Dump dump = new Dump(this);
         dump.write();
@@ -321,5 +464,6 @@ public class Computer extends Thread implements DataBus {
         monitor = new ROM("MONUK02.ROM");
         cpu = new CPU6502(1, "sleep", null);
         acia = new ACIA6850(300, Thread.NORM_PRIORITY);
+        acia.setClock(cpu);
     }
 }
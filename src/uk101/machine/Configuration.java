@@ -44,17 +44,31 @@ public class Configuration extends Properties {
     public static final String AMBER = "amber";
     public static final String SYNC = "sync";
     public static final String ASYNC = "async";
+    public static final String FRAME = "frame";
+    public static final String IMAGE = "image";
+    public static final String RASTER = "raster";
+    public static final String GIF = "gif";
+    public static final String PNG = "png";
     public static final String UK = "uk";
     public static final String US = "us";
     public static final String NORMAL = "normal";
     public static final String GAME = "game";
     public static final String SINE = "sine";
     public static final String SYSTEM = "system";
+    public static final String LOCKED = "locked";
+    public static final String RING = "ring";
+    public static final String PACED = "paced";
+    public static final String FAST = "fast";
 
     private static final String CPU_SPEED = "cpu.speed";
     private static final String CPU_CONTROL = "cpu.control";
     private static final String ACIA_ADDR = "acia.address";
     private static final String ACIA_RATE = "acia.rate";
+    private static final String ACIA_MODE = "acia.mode";
+    private static final String ACIA_TRAP = "acia.trap";
+    private static final String SERIAL_PORT = "serial.port";
+    private static final String SERIAL_MODE = "serial.mode";
+    private static final String TAPE_MAXLEN = "tape.maxlen";
     private static final String RAM_ADDR = "ram.address";
     private static final String RAM_SIZE = "ram.size";
     private static final String MONITOR_ADDR = "monitor.address";
@@ -77,18 +91,24 @@ public class Configuration extends Properties {
     private static final String SCREEN_OFFSET = "screen.offset";
     private static final String SCREEN_COLOUR = "screen.colour";
     private static final String SCREEN_UPDATE = "screen.update";
+    private static final String SCREEN_REFRESH = "screen.refresh";
+    private static final String SCREEN_RENDER = "screen.render";
+    private static final String RECORD_FORMAT = "record.format";
+    private static final String RECORD_RATE = "record.rate";
     private static final String AUDIO_RATE = "audio.rate";
     private static final String AUDIO_BITS = "audio.bits";
     private static final String AUDIO_LEAD = "audio.lead";
     private static final String AUDIO_WAVE = "audio.wave";
     private static final String AUDIO_PHASE = "audio.phase";
+    private static final String AUDIO_READAHEAD = "audio.readahead";
     private static final String ROM = "rom.";
     private static final String RAM = "ram.";
     private static final String NVRAM = "nvram.";
+    private static final String DISK = "disk.";
 
     private static final String WEMON = "WEMON";
 
-    // Additional ROM/RAM/NVRAM have an address and a filename or size
+    // Additional ROM/RAM/NVRAM/disks have an address and a filename or size
     public static class Mem {
         public int address, size;
         public String name;
@@ -163,6 +183,11 @@ public class Configuration extends Properties {
         applyHex(props, ACIA_ADDR, 0, 0xFFFF);
         applyStr(props, ACIA_RATE, "110", "300", "600", "1200", "2400", "4800", "9600");
         apply(props, ACIA_RATE, "baud.rate", 0, 0, 0, "110", "300", "600", "1200", "2400", "4800", "9600");
+        applyStr(props, ACIA_MODE, LOCKED, RING);
+        applyInt(props, ACIA_TRAP, 0, 1000);
+        applyInt(props, SERIAL_PORT, 0, 65535);
+        applyStr(props, SERIAL_MODE, PACED, FAST);
+        applyInt(props, TAPE_MAXLEN, 0, 1000);
         applyHex(props, RAM_ADDR, 0, 0xFFFF);
         applyInt(props, RAM_SIZE, 4, 40);
         applyHex(props, MONITOR_ADDR, 0, 0xFFFF);
@@ -181,20 +206,26 @@ public class Configuration extends Properties {
         applyHex(props, VIDEO_ADDR, 0, 0xFFFF);
         applyInt(props, VIDEO_ROWS, 16, 32);
         applyInt(props, VIDEO_COLS, 32, 64);
-        applyInt(props, SCREEN_SIZE, 1, 2);
+        applyDec(props, SCREEN_SIZE, 1, 4);
         applyInt(props, SCREEN_WIDTH, 16, 64);
         applyInt(props, SCREEN_OFFSET, 0, 63);
         applyStr(props, SCREEN_COLOUR, WHITE, GREEN, AMBER);
         apply(props, SCREEN_COLOUR, "screen.color", 0, 0, 0, WHITE, GREEN, AMBER);
-        applyStr(props, SCREEN_UPDATE, SYNC, ASYNC);
+        applyStr(props, SCREEN_UPDATE, SYNC, ASYNC, FRAME);
+        applyInt(props, SCREEN_REFRESH, 10, 100);
+        applyStr(props, SCREEN_RENDER, IMAGE, RASTER);
+        applyStr(props, RECORD_FORMAT, GIF, PNG);
+        applyInt(props, RECORD_RATE, 1, 50);
         applyInt(props, AUDIO_RATE, 8000, 96000);
         applyStr(props, AUDIO_BITS, "8", "16");
         applyInt(props, AUDIO_LEAD, 0, 10);
         applyStr(props, AUDIO_WAVE, SINE, SYSTEM);
         applyStr(props, AUDIO_PHASE, "0", "90", "180", "270");
+        applyInt(props, AUDIO_READAHEAD, 0, 65536);
         applyMem(props, ROM, 0, 0);
         applyMem(props, RAM, 1, 64);
         applyMem(props, NVRAM, 0, 0);
+        applyMem(props, DISK, 0, 0);
     }
 
     private void applyInt(Properties props, String key, int min, int max) {
@@ -211,6 +242,18 @@ public class Configuration extends Properties {
         }
     }
 
+    private void applyDec(Properties props, String key, double min, double max) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            try {
+                double d = Double.parseDouble(value.trim());
+                if (d >= min && d <= max)
+                    setProperty(key, Double.toString(d));
+            } catch (NumberFormatException e) { // Ignore bad numeric values
+            }
+        }
+    }
+
     private void applyStr(Properties props, String key, String... range) {
         apply(props, key, key, 0, 0, 0, range);
     }
@@ -337,8 +380,8 @@ public class Configuration extends Properties {
         return getInt(SCREEN_OFFSET);
     }
 
-    public int getScreenSize() {
-        return getInt(SCREEN_SIZE);
+    public double getScreenSize() {
+        return Double.parseDouble(getProperty(SCREEN_SIZE));
     }
 
     public String getScreenColour() {
@@ -349,6 +392,22 @@ public class Configuration extends Properties {
         return getString(SCREEN_UPDATE);
     }
 
+    public int getScreenRefresh() {
+        return getInt(SCREEN_REFRESH);
+    }
+
+    public String getScreenRender() {
+        return getString(SCREEN_RENDER);
+    }
+
+    public String getRecordFormat() {
+        return getString(RECORD_FORMAT);
+    }
+
+    public int getRecordRate() {
+        return getInt(RECORD_RATE);
+    }
+
     public int getAciaAddr() {
         return getHex(ACIA_ADDR);
     }
@@ -357,6 +416,26 @@ public class Configuration extends Properties {
         return getInt(ACIA_RATE);
     }
 
+    public String getAciaMode() {
+        return getString(ACIA_MODE);
+    }
+
+    public int getAciaTrap() {
+        return getInt(ACIA_TRAP);
+    }
+
+    public int getSerialPort() {
+        return getInt(SERIAL_PORT);
+    }
+
+    public String getSerialMode() {
+        return getString(SERIAL_MODE);
+    }
+
+    public int getTapeMaxLength() {
+        return getInt(TAPE_MAXLEN);
+    }
+
     private int getInt(String key) {
         return Integer.parseInt(getProperty(key));
     }
@@ -385,11 +464,12 @@ public class Configuration extends Properties {
         int baud = Math.min(Math.max(getInt(ACIA_RATE), 300), 1200);
         int phase = getInt(AUDIO_PHASE);
         KansasCityDecoder kcs = new KansasCityDecoder(baud, phase);
+        kcs.setReadAhead(getInt(AUDIO_READAHEAD));
         return kcs;
     }
 
     /*
-     * Return any additional ROMs, RAM or NVRAMs listed
+     * Return any additional ROMs, RAM, NVRAMs or disks listed
      */
     public Collection<Mem> getROMs() {
         return getMem(ROM, false);
@@ -403,6 +483,10 @@ public class Configuration extends Properties {
         return getMem(NVRAM, false);
     }
 
+    public Collection<Mem> getDisks() {
+        return getMem(DISK, false);
+    }
+
     private Collection<Mem> getMem(String prefix, boolean ram) {
         Collection<Mem> roms = new ArrayList<Mem>();
         for (Enumeration<?> k = propertyNames(); k.hasMoreElements(); ) {
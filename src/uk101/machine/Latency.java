@@ -0,0 +1,198 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Measure the latency from a key being pressed or released to the screen
+ * showing the result.  A key event is followed through four points:
+ *
+ *    key:   the keyboard view passes the event to the keyboard
+ *    read:  the first keyboard read by the CPU that returns a different
+ *           value because of the event
+ *    video: the next write to video memory
+ *    paint: the next time the screen is drawn after that write
+ *
+ * The times between each point are counted in a histogram for each stage,
+ * plus the total.  Only one key event is followed at a time, events that
+ * happen while one is being followed are ignored.  An event that is not
+ * followed all the way through within a second (for example a key that
+ * does not change the screen) is counted as incomplete and dropped.
+ */
+public class Latency {
+
+    // Stages
+    public static final int KEY_READ = 0;
+    public static final int READ_VIDEO = 1;
+    public static final int VIDEO_PAINT = 2;
+    public static final int TOTAL = 3;
+    public static final String[] STAGES = { "Key to read", "Read to video", "Video to paint", "Total" };
+
+    // Histogram bucket upper limits in microseconds, the last bucket has
+    // no upper limit.
+    public static final long[] BUCKETS = {
+        100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000
+    };
+
+    // Time before a key event is given up on
+    static final long TIMEOUT = 1000000000L;
+
+    // Where the key event being followed has got to
+    private static final int IDLE = 0, KEY = 1, READ = 2, VIDEO = 3;
+    private volatile int state;
+    private long keyTime, readTime, videoTime;
+
+    // Results
+    private long[][] counts;
+    private long[] total, max;
+    private long samples, incomplete;
+    private Date timestamp;
+
+    public Latency() {
+        reset();
+    }
+
+    /*
+     * Clear the results
+     */
+    public synchronized void reset() {
+        counts = new long[STAGES.length][BUCKETS.length+1];
+        total = new long[STAGES.length];
+        max = new long[STAGES.length];
+        samples = incomplete = 0;
+        timestamp = new Date();
+        state = IDLE;
+    }
+
+    /*
+     * The points a key event passes through.  Apart from keyEvent these are
+     * called for every keyboard read or video write so must be cheap when
+     * the probe is not waiting for them.
+     */
+    public void keyEvent() {
+        long now = System.nanoTime();
+        if (state != IDLE) {
+            if (now - keyTime < TIMEOUT)
+                return;
+            synchronized (this) {
+                incomplete += 1;
+            }
+        }
+        keyTime = now;
+        state = KEY;
+    }
+
+    public boolean waitingForRead() {
+        return state == KEY;
+    }
+
+    public void keyRead() {
+        if (state == KEY) {
+            readTime = System.nanoTime();
+            state = READ;
+        }
+    }
+
+    public void videoWrite() {
+        if (state == READ) {
+            videoTime = System.nanoTime();
+            state = VIDEO;
+        }
+    }
+
+    public void painted() {
+        if (state == VIDEO) {
+            long now = System.nanoTime();
+            state = IDLE;
+            synchronized (this) {
+                add(KEY_READ, readTime - keyTime);
+                add(READ_VIDEO, videoTime - readTime);
+                add(VIDEO_PAINT, now - videoTime);
+                add(TOTAL, now - keyTime);
+                samples += 1;
+            }
+        }
+    }
+
+    private void add(int stage, long nanos) {
+        long us = nanos/1000;
+        int b = 0;
+        while (b < BUCKETS.length && us >= BUCKETS[b])
+            b++;
+        counts[stage][b] += 1;
+        total[stage] += us;
+        max[stage] = Math.max(max[stage], us);
+    }
+
+    /*
+     * Return the results as a table, one column for each stage
+     */
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-12s", ""));
+        for (String s : STAGES)
+            sb.append(String.format(" %14s", s));
+        sb.append('\n');
+        for (int b = 0; b <= BUCKETS.length; b++) {
+            sb.append(String.format("%-12s", bucketName(b)));
+            for (int s = 0; s < STAGES.length; s++)
+                sb.append(String.format(" %14d", counts[s][b]));
+            sb.append('\n');
+        }
+        sb.append(String.format("%-12s", "Average"));
+        for (int s = 0; s < STAGES.length; s++)
+            sb.append(String.format(" %14s", time(samples > 0 ? total[s]/samples : 0)));
+        sb.append('\n');
+        sb.append(String.format("%-12s", "Maximum"));
+        for (int s = 0; s < STAGES.length; s++)
+            sb.append(String.format(" %14s", time(max[s])));
+        sb.append('\n');
+        sb.append(String.format("%nKey events: %d measured, %d incomplete%n", samples, incomplete));
+        return sb.toString();
+    }
+
+    private static String bucketName(int b) {
+        return (b < BUCKETS.length) ? "< " + time(BUCKETS[b]) : ">= " + time(BUCKETS[b-1]);
+    }
+
+    private static String time(long us) {
+        return (us < 1000) ? us + "us" : (us < 1000000) ? String.format("%.1fms", us/1000.0) : String.format("%.2fs", us/1000000.0);
+    }
+
+    /*
+     * Write the histograms as a CSV file, one row per bucket with the
+     * bucket limit in microseconds.
+     */
+    public String write() {
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+        String filename = "uk101-" + df.format(timestamp) + "-latency.csv";
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(filename));
+            synchronized (this) {
+                out.print("Limit (us)");
+                for (String s : STAGES)
+                    out.print("," + s);
+                out.println();
+                for (int b = 0; b <= BUCKETS.length; b++) {
+                    out.print((b < BUCKETS.length) ? Long.toString(BUCKETS[b]) : "");
+                    for (int s = 0; s < STAGES.length; s++)
+                        out.print("," + counts[s][b]);
+                    out.println();
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            System.err.println(e);
+            filename = null;
+        }
+        return filename;
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.BitSet;
+
+/**
+ * Load machine code tapes straight into memory rather than having the
+ * monitor read them through the ACIA.  The tape is read the same way as
+ * the monitor's load routine would read it:
+ *
+ *   .hhhh   set the address (address mode)
+ *   /       start storing data (data mode)
+ *   hh      data byte to store at the address
+ *   CR      move on to the next address (data mode)
+ *   G       go to the address (address mode)
+ *
+ * Many tapes start with a short loader that then reads the rest of the
+ * tape in checksum format, so those records are also read:
+ *
+ *   ;nnhhhhdd..ddcccc   nn data bytes for address hhhh with checksum cccc
+ *   $hhhh               go to the address
+ *
+ * In that case the go command for the short loader is ignored.
+ *
+ * The tape is read until a go command or the end of the tape, so any
+ * following data can still be read through the ACIA.  The memory is then
+ * written with the processor held and the monitor's address location and
+ * its copy of the byte at that address updated as its load routine would
+ * leave them.  A go command is run through the monitor's own go routine.
+ */
+public class MonitorLoader {
+
+    // Per monitor address and data locations and go routine, indexed by
+    // the Computer monitor types.
+    private static final int[] ADDRESS = { 0xFE, 0xFE, 0xFE, 0xFC };
+    private static final int[] DATA = { 0xFC, 0xFC, 0xFC, 0xFA };
+    private static final int[] GO = { 0xFE4C, 0xFE79, 0xF9EF, 0xFE4B };
+
+    // How far to look after a go command for checksum format records, the
+    // input stream must allow this many characters to be pushed back.
+    static final int LOOKAHEAD = 32;
+
+    private Computer computer;
+    private byte[] image;
+    private BitSet loaded;
+    private int address, data;
+    private int go;
+    private boolean monitorGo;
+
+    // Statistics
+    private int bytes, records, errors;
+    private long time;
+
+    public MonitorLoader(Computer computer) {
+        this.computer = computer;
+        image = new byte[0x10000];
+        loaded = new BitSet(0x10000);
+        address = -1;
+        go = -1;
+    }
+
+    /*
+     * Read a tape.  Returns false, without storing anything, if the tape is
+     * not in monitor format.  Characters the monitor would ignore before
+     * the first command are skipped over.
+     */
+    public boolean load(PushbackInputStream in) throws IOException {
+        long start = System.nanoTime();
+        int b = skip(in);
+        if (b != '.' && b != ';') {
+            if (b != -1)
+                in.unread(b);
+            return false;
+        }
+
+        in.unread(b);
+        boolean ok = true;
+        if (b == ';' || monitor(in)) {
+            ok = checksum(in);
+        }
+        if (ok) {
+            store();
+        }
+        time = System.nanoTime() - start;
+        return true;
+    }
+
+    // Monitor format, returns true if the go command could be for a short
+    // loader for checksum format records.
+    private boolean monitor(PushbackInputStream in) throws IOException {
+        boolean dataMode = true;
+        for (int b = in.read(); b != -1; b = in.read()) {
+            b = Character.toUpperCase(b & 0x7F);
+            if (dataMode) {
+                if (b == '.') {
+                    dataMode = false;
+                } else if (b == '\r') {
+                    if (address != -1)
+                        address = (address + 1) & 0xFFFF;
+                } else if (hex(b) != -1 && address != -1) {
+                    data = ((data << 4) | hex(b)) & 0xFF;
+                    poke(address, data);
+                }
+            } else {
+                if (b == '/') {
+                    dataMode = true;
+                } else if (b == 'G') {
+                    go = address;
+                    monitorGo = true;
+                    if (records(in)) {
+                        go = -1;
+                        return true;
+                    }
+                    return false;
+                } else if (hex(b) != -1) {
+                    address = (((address == -1) ? 0 : address << 4) | hex(b)) & 0xFFFF;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Look for a checksum format record following a go command, skipping
+    // anything a short loader would ignore.  Otherwise leave the input as
+    // it was.
+    private static boolean records(PushbackInputStream in) throws IOException {
+        byte[] ahead = new byte[LOOKAHEAD];
+        int n = 0;
+        for (int b = in.read(); b != -1; b = in.read()) {
+            ahead[n++] = (byte)b;
+            if (b == ';' || b == '.' || b == '$' || n == ahead.length)
+                break;
+        }
+        if (n > 0 && ahead[n-1] == ';') {
+            in.unread(';');
+            return true;
+        }
+        in.unread(ahead, 0, n);
+        return false;
+    }
+
+    // Checksum format, returns true if there were no checksum errors.
+    private boolean checksum(PushbackInputStream in) throws IOException {
+        for (int b = in.read(); b != -1; b = in.read()) {
+            b = b & 0x7F;
+            if (b == ';') {
+                int sum = 0;
+                int count = hexByte(in);
+                int addr = (hexByte(in) << 8) | hexByte(in);
+                sum += count + (addr >> 8) + (addr & 0xFF);
+                for (int i = 0; i < count; i++) {
+                    int d = hexByte(in);
+                    sum += d;
+                    poke((addr + i) & 0xFFFF, d);
+                }
+                int check = (hexByte(in) << 8) | hexByte(in);
+                if (check != (sum & 0xFFFF)) {
+                    errors += 1;
+                }
+                records += 1;
+            } else if (b == '$') {
+                go = (hexByte(in) << 8) | hexByte(in);
+                monitorGo = false;
+                break;
+            }
+        }
+        return (errors == 0);
+    }
+
+    /*
+     * Write the loaded data into memory and start any program
+     */
+    private void store() {
+        int mon = computer.monitorType;
+        synchronized (computer.cpu) {
+            for (int i = loaded.nextSetBit(0); i >= 0; i = loaded.nextSetBit(i+1)) {
+                computer.writeByte(i, image[i]);
+            }
+            if (address != -1) {
+                computer.writeByte(ADDRESS[mon], (byte)address);
+                computer.writeByte(ADDRESS[mon]+1, (byte)(address >> 8));
+                computer.writeByte(DATA[mon], computer.readByte(address));
+            }
+            if (go != -1) {
+                Cpu state = new Cpu(computer.cpu);
+                state.PC = (short)(monitorGo ? GO[mon] : go);
+                computer.cpu.applyState(state);
+            }
+        }
+    }
+
+    private void poke(int addr, int b) {
+        if (!loaded.get(addr))
+            bytes += 1;
+        image[addr] = (byte)b;
+        loaded.set(addr);
+    }
+
+    // Skip the characters that could come before a command
+    private static int skip(PushbackInputStream in) throws IOException {
+        int b = in.read();
+        while (b == 0 || b == '\r' || b == '\n' || b == ' ' || b == ':') {
+            b = in.read();
+        }
+        return b;
+    }
+
+    private static int hex(int b) {
+        return Character.digit(b, 16);
+    }
+
+    private static int hexByte(PushbackInputStream in) throws IOException {
+        int h = hex(in.read() & 0x7F);
+        int l = hex(in.read() & 0x7F);
+        return (h == -1 || l == -1) ? 0 : (h << 4) | l;
+    }
+
+    /*
+     * Load report, lists the memory blocks loaded
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    public int getGo() {
+        return go;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(bytes + " bytes loaded");
+        if (records > 0) {
+            sb.append(" from " + records + " records");
+        }
+        sb.append(String.format(" in %.1fms", time/1e6)).append("\n");
+        for (int i = loaded.nextSetBit(0); i >= 0; ) {
+            int end = loaded.nextClearBit(i);
+            sb.append(String.format("  %04X-%04X  %5d bytes", i, end-1, end-i)).append("\n");
+            i = loaded.nextSetBit(end);
+        }
+        if (errors > 0) {
+            sb.append(errors + " checksum errors, program not stored").append("\n");
+        } else if (go != -1) {
+            sb.append(String.format("Started at %04X", go)).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import uk101.hardware.Memory;
+import uk101.hardware.ROM;
+
+/**
+ * Capture and record an execution profile.  This is an exact count (not a
+ * sample) of the instructions executed and CPU cycles used at every address,
+ * plus a call graph of the cycles used by each subroutine.  If the standard
+ * BASIC interpreter is installed the cycles used by each line of the BASIC
+ * program are also recorded.
+ */
+public class Profile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Identification
+    public String name;         // System name;
+    public String version;      // System version
+    public Date timestamp;      // Time-stamp of profile
+
+    // Execution counts, indexed by instruction address
+    public long[] counts;       // Instructions executed
+    public long[] cycles;       // CPU cycles used
+
+    // Cycles used by each subroutine call path
+    public CallGraph calls;
+
+    // Cycles used by each line of a BASIC program, if BASIC is recognised
+    public BasicProfile basic;
+
+    // Copy of the address space and the name of the memory mapped into each
+    // block, taken when the profile is written so the profile can be
+    // disassembled and reported without the original machine.
+    public byte[] store;
+    public String[] blocks;
+
+    transient private Computer computer;
+
+    public Profile(Computer computer) {
+        this.computer = computer;
+        name = computer.name;
+        version = computer.version;
+        timestamp = new Date();
+
+        counts = new long[Memory.K64];
+        cycles = new long[Memory.K64];
+        calls = new CallGraph();
+
+        Basic b = new Basic(computer);
+        if (b.recognised())
+            basic = new BasicProfile(b);
+    }
+
+    /*
+     * Count an executed instruction.  This is called by the CPU for every
+     * instruction so must be kept as cheap as possible.
+     */
+    public void count(int pc, int c) {
+        counts[pc] += 1;
+        cycles[pc] += c;
+        calls.cycles(c);
+        if (basic != null)
+            basic.count(pc, c);
+    }
+
+    /*
+     * Subroutine and interrupt calls and returns, for the call graph.  The
+     * CPU reports these before counting the instruction, so the cycles for
+     * a JSR (or interrupt) are counted as part of the called subroutine and
+     * the cycles for its RTS (or RTI) as part of the caller.
+     */
+    public void call(int addr, int sp, boolean irq) {
+        calls.call(addr, sp, irq);
+    }
+
+    public void ret(int sp) {
+        calls.ret(sp);
+    }
+
+    public void reset() {
+        calls.reset();
+        if (basic != null)
+            basic.reset();
+    }
+
+    /*
+     * Return totals
+     */
+    public long totalCounts() {
+        return total(counts);
+    }
+
+    public long totalCycles() {
+        return total(cycles);
+    }
+
+    private static long total(long[] values) {
+        long total = 0;
+        for (int i = 0; i < values.length; i++)
+            total += values[i];
+        return total;
+    }
+
+    // Name of the memory at an address
+    public String blockName(int addr) {
+        String s = (blocks != null) ? blocks[Memory.asBlock(addr)] : null;
+        return (s != null) ? s : "";
+    }
+
+    // Take a copy of the address space and memory map
+    private void snapshot() {
+        store = new byte[Memory.K64];
+        for (int i = 0; i < store.length; i++)
+            store[i] = computer.traceByte(i);
+
+        blocks = new String[computer.memory.length];
+        for (int i = 0; i < blocks.length; i++) {
+            Memory m = computer.memory[i];
+            if (m != null)
+                blocks[i] = (m instanceof ROM) ? ((ROM)m).id() : m.getClass().getSimpleName();
+        }
+    }
+
+    /*
+     * Write a profile file.
+     */
+    public void write() {
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+        String filename = "uk101-" + df.format(timestamp) + ".profile";
+        try {
+            OutputStream stream = new DeflaterOutputStream(new FileOutputStream(filename));
+            write(stream);
+            stream.close();
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        if (computer != null)
+            snapshot();
+        ObjectOutputStream out = new ObjectOutputStream(stream);
+        out.writeObject(this);
+        out.flush();
+    }
+
+    /*
+     * Read a profile file.
+     */
+    public static Profile readProfile(File file) {
+        Profile profile = null;
+        try {
+            InputStream stream = new InflaterInputStream(new FileInputStream(file));
+            profile = readProfile(stream);
+            stream.close();
+        } catch (Exception e) {
+            System.err.println(e);
+        }
+        return profile;
+    }
+
+    public static Profile readProfile(InputStream stream) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(stream);
+        Profile profile = (Profile)in.readObject();
+        return profile;
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import uk101.hardware.Video;
+import uk101.view.component.GlyphAtlas;
+
+/**
+ * Record the screen as an animated GIF or a sequence of PNG images.
+ *
+ * The visible screen cells are copied at a fixed rate of emulated CPU time,
+ * which is cheap as it is just a copy of part of the video RAM.  The copies
+ * are queued for a background thread that draws and writes the images.  If
+ * the queue is full the snapshot is dropped rather than holding up the CPU.
+ *
+ * Animated GIFs only include frames that are different from the one
+ * before, so a static screen just makes the previous frame last longer.
+ * PNG sequences have an image for every frame.
+ */
+public class ScreenRecorder implements Runnable {
+
+    // Maximum number of snapshots waiting to be written
+    static final int QUEUE_SIZE = 64;
+
+    private static final Snapshot END = new Snapshot(0);
+
+    private Computer computer;
+    private Video video;
+    private boolean gif;
+    private int rate, cycles;
+    private int rows, cols;
+    private int width, offset;
+    private Color colour;
+    private byte[] bitmaps;
+    private int[] pixels;
+    private String filename;
+
+    private BlockingQueue<Snapshot> queue;
+    private BlockingQueue<Snapshot> free;
+    private Thread writer;
+
+    // Statistics
+    private volatile long frames, dropped, written;
+
+    public ScreenRecorder(Computer computer) {
+        this.computer = computer;
+        video = computer.video;
+        Configuration cfg = computer.config;
+        gif = cfg.getRecordFormat().equals(Configuration.GIF);
+        rate = cfg.getRecordRate();
+        rows = video.rows;
+        cols = video.cols;
+        width = Math.min(cfg.getScreenWidth(), cols);
+        offset = Math.min(cfg.getScreenOffset(), cols - width);
+        colour = GlyphAtlas.getColour(cfg.getScreenColour());
+        bitmaps = GlyphAtlas.getBitmaps(video.charSet, video.charHeight);
+
+        // Emulated time uses the configured clock speed, or 1MHz when the
+        // CPU is running as fast as possible.
+        int mhz = Math.max(computer.cpu.getMHz(), 1);
+        cycles = mhz*1000000/rate;
+
+        queue = new ArrayBlockingQueue<Snapshot>(QUEUE_SIZE);
+        free = new ArrayBlockingQueue<Snapshot>(QUEUE_SIZE);
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+        filename = "uk101-" + df.format(new Date());
+    }
+
+    /*
+     * Start and stop recording.  Stopping waits for all the queued
+     * snapshots to be written.
+     */
+    public void start() {
+        writer = new Thread(this, "ScreenRecorder");
+        writer.start();
+        computer.cpu.timer(cycles, new Runnable() {
+            public void run() {
+                snapshot();
+            }
+        });
+    }
+
+    public void stop() {
+        computer.cpu.timer(0, null);
+        try {
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+        }
+        if (Computer.debug) {
+            System.out.println("Screen recording: " + frames + " frames, " + dropped + " dropped, " + written + " images written");
+        }
+    }
+
+    // The visible cells at a frame time
+    static class Snapshot {
+        long frame;
+        byte[] cells;
+
+        Snapshot(int size) {
+            cells = new byte[size];
+        }
+    }
+
+    // Called on the CPU thread, copy the visible cells
+    private void snapshot() {
+        Snapshot s = free.poll();
+        if (s == null) {
+            s = new Snapshot(rows*width);
+        }
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(video.store, r*cols + offset, s.cells, r*width, width);
+        }
+        s.frame = frames++;
+        if (!queue.offer(s)) {
+            dropped += 1;
+            free.offer(s);
+        }
+    }
+
+    /*
+     * Background thread to write the images.  In a GIF dropped frames are
+     * included in the time the previous frame is shown, PNG files are
+     * numbered by frame so any gaps can be seen.
+     */
+    public void run() {
+        try {
+            if (gif) {
+                writeGif();
+            } else {
+                writePng();
+            }
+        } catch (Exception e) {
+            System.err.println(e);
+            discard();
+        }
+    }
+
+    // Throw away snapshots after an error, until recording is stopped
+    private void discard() {
+        try {
+            while (queue.take() != END);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    private void writeGif() throws IOException, InterruptedException {
+        ImageWriter iw = ImageIO.getImageWritersByFormatName("gif").next();
+        ImageOutputStream out = ImageIO.createImageOutputStream(new File(filename + ".gif"));
+        iw.setOutput(out);
+        iw.prepareWriteSequence(null);
+
+        BufferedImage image = createImage();
+        byte[] last = null;
+        long start = 0;
+        for (Snapshot s = queue.take(); s != END; s = queue.take()) {
+            if (last == null || !Arrays.equals(s.cells, last)) {
+                if (last != null) {
+                    writeGifFrame(iw, image, start, s.frame);
+                } else {
+                    last = new byte[s.cells.length];
+                }
+                System.arraycopy(s.cells, 0, last, 0, last.length);
+                draw(image, last);
+                start = s.frame;
+            }
+            free.offer(s);
+        }
+        if (last != null) {
+            writeGifFrame(iw, image, start, frames);
+        }
+        iw.endWriteSequence();
+        out.close();
+        iw.dispose();
+    }
+
+    // Write a frame shown from the start frame time until the end.  The
+    // delay is in 1/100 seconds, calculated from the frame times so rounding
+    // errors do not build up.
+    private void writeGifFrame(ImageWriter iw, BufferedImage image, long start, long end) throws IOException {
+        int delay = (int)(end*100/rate - start*100/rate);
+        IIOMetadata meta = iw.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), null);
+        String format = meta.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode)meta.getAsTree(format);
+
+        IIOMetadataNode gce = getNode(root, "GraphicControlExtension");
+        gce.setAttribute("disposalMethod", "none");
+        gce.setAttribute("userInputFlag", "FALSE");
+        gce.setAttribute("transparentColorFlag", "FALSE");
+        gce.setAttribute("delayTime", Integer.toString(Math.max(delay, 1)));
+        gce.setAttribute("transparentColorIndex", "0");
+
+        // Loop forever
+        if (written == 0) {
+            IIOMetadataNode app = new IIOMetadataNode("ApplicationExtension");
+            app.setAttribute("applicationID", "NETSCAPE");
+            app.setAttribute("authenticationCode", "2.0");
+            app.setUserObject(new byte[] { 1, 0, 0 });
+            getNode(root, "ApplicationExtensions").appendChild(app);
+        }
+        meta.setFromTree(format, root);
+        iw.writeToSequence(new IIOImage(image, null, meta), null);
+        written += 1;
+    }
+
+    private IIOMetadataNode getNode(IIOMetadataNode root, String name) {
+        for (int i = 0; i < root.getLength(); i++) {
+            if (root.item(i).getNodeName().equals(name))
+                return (IIOMetadataNode)root.item(i);
+        }
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        root.appendChild(node);
+        return node;
+    }
+
+    private void writePng() throws IOException, InterruptedException {
+        File dir = new File(filename);
+        dir.mkdir();
+        BufferedImage image = createImage();
+        for (Snapshot s = queue.take(); s != END; s = queue.take()) {
+            draw(image, s.cells);
+            ImageIO.write(image, "png", new File(dir, String.format("frame-%06d.png", s.frame)));
+            free.offer(s);
+            written += 1;
+        }
+    }
+
+    /*
+     * Images are one byte per pixel, using a two colour palette.  Characters
+     * are drawn as palette indexes and then copied into the image.
+     */
+    private BufferedImage createImage() {
+        byte[] r = new byte[] { 0, (byte)colour.getRed() };
+        byte[] g = new byte[] { 0, (byte)colour.getGreen() };
+        byte[] b = new byte[] { 0, (byte)colour.getBlue() };
+        IndexColorModel colours = new IndexColorModel(1, 2, r, g, b);
+        pixels = new int[width*video.charWidth * rows*video.charHeight];
+        return new BufferedImage(width*video.charWidth, rows*video.charHeight, BufferedImage.TYPE_BYTE_INDEXED, colours);
+    }
+
+    private void draw(BufferedImage image, byte[] cells) {
+        int cw = video.charWidth, ch = video.charHeight;
+        int stride = width*cw;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < width; c++) {
+                int glyph = cells[r*width + c] & 0xFF;
+                GlyphAtlas.drawPixels(bitmaps, glyph, cw, ch, cw, ch, pixels, r*ch*stride + c*cw, stride, 1);
+            }
+        }
+        image.getRaster().setPixels(0, 0, image.getWidth(), image.getHeight(), pixels);
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import uk101.hardware.ACIA6850;
+import uk101.hardware.bus.IOBus;
+
+/**
+ * A serial port that connects the ACIA to a host program, such as a
+ * terminal client or a test driver, over a TCP connection on the local
+ * machine.  The port accepts one connection at a time, as a serial line
+ * would, and plugs itself into the ACIA while the connection is open.
+ *
+ * All the ports in the JVM share a single selector thread that does the
+ * network reads and writes in bulk, using a buffer in each direction.  The
+ * ACIA worker thread only takes bytes from and adds bytes to the buffers.
+ * When the ACIA asks for a byte before any have arrived it is given -1, so
+ * the port plugs itself in again when more data arrives to wake the ACIA.
+ *
+ * In paced mode the ACIA holds the processor to the baud rate for each
+ * character, otherwise characters go through as fast as the processor
+ * takes them.
+ *
+ * The cassette recorder shares the ACIA.  A tape that is played or
+ * recorded while a client is connected takes over from the port, which
+ * takes the ACIA back when more data arrives after the tape is stopped.
+ */
+public class SerialPort implements IOBus {
+
+    static final int BUFFER_SIZE = 4096;
+
+    private ACIA6850 acia;
+    private int port;
+    private boolean paced;
+
+    private ServerSocketChannel server;
+    private SocketChannel channel;
+    private String client;
+
+    // The input buffer is kept ready to read from and the output buffer
+    // ready to add to.
+    private ByteBuffer input, output;
+    private boolean starved, full;
+
+    // Statistics for the current connection
+    private long received, sent;
+    private long connected, ended;
+
+    public SerialPort(ACIA6850 acia, int port, boolean paced) throws IOException {
+        this.acia = acia;
+        this.port = port;
+        this.paced = paced;
+        input = ByteBuffer.allocate(BUFFER_SIZE);
+        input.flip();
+        output = ByteBuffer.allocate(BUFFER_SIZE);
+
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), port));
+        server.configureBlocking(false);
+        start();
+        schedule();
+    }
+
+    public void close() {
+        synchronized (this) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+            if (channel != null) {
+                disconnect();
+            }
+        }
+        selector.wakeup();
+    }
+
+    /*
+     * Implement the IOBus interface used by the ACIA worker thread
+     */
+
+    public synchronized int readByte() {
+        if (!input.hasRemaining()) {
+            starved = true;
+            return -1;
+        }
+        int b = input.get() & 0xFF;
+        if (full && input.remaining() <= input.capacity()/2) {
+            full = false;
+            schedule();
+        }
+        if (channel == null && !input.hasRemaining()) {
+            detach();
+        }
+        return b;
+    }
+
+    // Wait for room in the output buffer if the client is slow, anything
+    // written after the connection has closed is lost.
+    public synchronized void writeByte(int value) {
+        while (channel != null && !output.hasRemaining()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+            }
+        }
+        if (channel != null) {
+            output.put((byte)value);
+            if (output.position() == 1) {
+                schedule();
+            }
+        }
+    }
+
+    /*
+     * Connection handling, called on the selector thread
+     */
+
+    private void accept() {
+        SocketChannel c = null;
+        try {
+            c = server.accept();
+            if (c == null)
+                return;
+            synchronized (this) {
+                if (channel != null) {
+                    c.close();
+                    return;
+                }
+                c.configureBlocking(false);
+                c.socket().setTcpNoDelay(true);
+                c.register(selector, SelectionKey.OP_READ, this);
+                channel = c;
+                client = c.socket().getRemoteSocketAddress().toString();
+                input.clear();
+                input.flip();
+                output.clear();
+                starved = full = false;
+                received = sent = 0;
+                connected = System.nanoTime();
+                if (Computer.debug) {
+                    System.out.println("Serial port " + port + ": connected to " + client);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            return;
+        }
+        acia.setPaced(paced);
+        acia.setTxBus(this);
+        acia.setRxBus(this);
+    }
+
+    private void receive() {
+        boolean wake = false;
+        synchronized (this) {
+            if (channel == null)
+                return;
+            int n;
+            input.compact();
+            try {
+                n = channel.read(input);
+            } catch (IOException e) {
+                System.err.println(e);
+                n = -1;
+            }
+            input.flip();
+            if (n == -1) {
+                disconnect();
+                return;
+            }
+            received += n;
+            full = (input.remaining() == input.capacity());
+            interest();
+            if (n > 0 && starved) {
+                starved = false;
+                wake = true;
+            }
+        }
+        if (wake || acia.getRxBus() == null) {
+            attach();
+        }
+    }
+
+    private synchronized void send() {
+        if (channel == null)
+            return;
+        output.flip();
+        try {
+            sent += channel.write(output);
+        } catch (IOException e) {
+            System.err.println(e);
+            disconnect();
+            return;
+        }
+        output.compact();
+        notifyAll();
+        interest();
+    }
+
+    // Read unless the input buffer is full and write if there is output
+    private void interest() {
+        SelectionKey key = (channel != null) ? channel.keyFor(selector) : null;
+        if (key != null && key.isValid()) {
+            int ops = full ? 0 : SelectionKey.OP_READ;
+            if (output.position() > 0)
+                ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+        }
+    }
+
+    private synchronized void update() {
+        if (!server.isOpen())
+            return;
+        try {
+            if (server.keyFor(selector) == null) {
+                server.register(selector, SelectionKey.OP_ACCEPT, this);
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        interest();
+    }
+
+    // Anything already received can still be read by the ACIA, once it is
+    // all gone the port is unplugged.
+    private void disconnect() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        channel = null;
+        ended = System.nanoTime();
+        output.clear();
+        full = false;
+        notifyAll();
+        if (Computer.debug) {
+            System.out.println("Serial port " + port + ": " + report());
+        }
+        if (!input.hasRemaining()) {
+            detach();
+        }
+    }
+
+    // Plug the port into the ACIA again, unless a tape is being played
+    private void attach() {
+        if (acia.getTxBus() == null)
+            acia.setTxBus(this);
+        IOBus rx = acia.getRxBus();
+        if (rx == null || rx == this)
+            acia.setRxBus(this);
+    }
+
+    private void detach() {
+        if (acia.getRxBus() == this)
+            acia.setRxBus(null);
+        if (acia.getTxBus() == this)
+            acia.setTxBus(null);
+        acia.setPaced(false);
+    }
+
+    /*
+     * The selector thread, shared by all the ports.  Changes from other
+     * threads are queued for the selector thread to make.
+     */
+
+    private static Selector selector;
+    private static List<SerialPort> changes = new ArrayList<SerialPort>();
+
+    private static synchronized void start() throws IOException {
+        if (selector == null) {
+            selector = Selector.open();
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    select();
+                }
+            });
+            t.setName(SerialPort.class.getSimpleName());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void schedule() {
+        synchronized (changes) {
+            if (!changes.contains(this))
+                changes.add(this);
+        }
+        selector.wakeup();
+    }
+
+    private static void select() {
+        List<SerialPort> ports = new ArrayList<SerialPort>();
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+
+            synchronized (changes) {
+                ports.addAll(changes);
+                changes.clear();
+            }
+            for (SerialPort p : ports) {
+                p.update();
+            }
+            ports.clear();
+
+            for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+                SelectionKey key = i.next();
+                i.remove();
+                SerialPort p = (SerialPort)key.attachment();
+                if (key.isValid() && key.isAcceptable())
+                    p.accept();
+                if (key.isValid() && key.isReadable())
+                    p.receive();
+                if (key.isValid() && key.isWritable())
+                    p.send();
+            }
+        }
+    }
+
+    /*
+     * Statistics for the current or last connection
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    public synchronized String report() {
+        if (client == null)
+            return "not connected";
+        long end = (channel != null) ? System.nanoTime() : ended;
+        double secs = Math.max(end - connected, 1)/1e9;
+        return String.format("%s %s, %d bytes received, %d bytes sent in %.1fs (%.0f bytes/s)",
+                client, (channel != null) ? "connected" : "disconnected",
+                received, sent, secs, (received + sent)/secs);
+    }
+
+    /*
+     * Mainly for debugging
+     */
+    public String toString() {
+        return "Serial Port " + port + ": " + report();
+    }
+}
@@ -8,7 +8,9 @@ package uk101.machine;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 
+import uk101.hardware.CPU6502;
 import uk101.hardware.bus.IOBus;
 import uk101.hardware.bus.IODevice;
 import uk101.view.CassetteView;
@@ -20,14 +22,34 @@ import uk101.view.CassetteView;
  * By using the WaveInputStream and WaveOutputStream classes this can be
  * made to read or write Kansas City encoded audio data.
  */
-public class TapeRecorder implements IOBus {
+public class TapeRecorder implements IOBus, CPU6502.Trap {
+
+    // Time after the processor was last waiting in the trapped monitor
+    // routine that the ACIA is given no tape input.
+    static final long TRAP_HOLD = 100000000L;
 
     private IODevice acia;
+    private Computer computer;
     private InputStream input;
     private OutputStream output;
 
+    // The input tape as a receive device for the ACIA, and the last one
+    // started.  Each tape is a different device so anything the ACIA has
+    // read ahead is kept while a tape is stopped, but not when it is changed.
+    private IOBus tape, started;
+
+    // Bytes read by the ACIA and by the monitor trap since the tape started
+    private long aciaStart, aciaBytes, trapBytes;
+    private boolean trapping, reading;
+    private long trapTime;
+
     public TapeRecorder(IODevice io) {
+        this(io, null);
+    }
+
+    public TapeRecorder(IODevice io, Computer computer) {
         acia = io;
+        this.computer = computer;
     }
 
     /*
@@ -42,7 +64,10 @@ public class TapeRecorder implements IOBus {
                 System.err.println(e);
             }
         }
-        input = in;
+        synchronized (this) {
+            input = in;
+            tape = (in != null) ? new Tape() : null;
+        }
     }
 
     public void setOutputTape(OutputStream out) {
@@ -58,8 +83,16 @@ public class TapeRecorder implements IOBus {
     }
 
     public void startTape() {
-        if (input != null)
-            acia.setRxBus(this);
+        synchronized (this) {
+            if (tape != started) {
+                aciaStart = (computer != null) ? computer.acia.getRxCount() : 0;
+                aciaBytes = trapBytes = 0;
+                started = tape;
+            }
+            trapping = false;
+        }
+        if (tape != null)
+            acia.setRxBus(tape);
         if (output != null)
             acia.setTxBus(this);
     }
@@ -67,6 +100,9 @@ public class TapeRecorder implements IOBus {
     public void stopTape() {
         acia.setRxBus(null);
         acia.setTxBus(null);
+        if (Computer.debug && trapBytes > 0) {
+            System.out.println("Tape trap: " + trapBytes + " bytes read by the monitor, " + aciaBytes + " by the ACIA");
+        }
     }
 
     public void ejectTape() {
@@ -75,16 +111,101 @@ public class TapeRecorder implements IOBus {
         setOutputTape(null);
     }
 
+    /*
+     * Load a BASIC program listing from the input tape straight into memory
+     * rather than reading it through the ACIA.  Returns the number of lines
+     * loaded or -1 if the program could not be loaded.
+     */
+    public int fastLoad() {
+        int lines = -1;
+        if (input != null && computer != null) {
+            try {
+                lines = computer.loadBasic(input);
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+            setActive(false);
+        }
+        return lines;
+    }
+
+    /*
+     * Load a machine code tape in monitor format from the input tape straight
+     * into memory.  Returns null if the tape is not in monitor format, in
+     * which case it can still be read as normal.  The tape is left after
+     * any go command so the rest can be read through the ACIA.
+     */
+    public MonitorLoader fastLoadMonitor() {
+        MonitorLoader loader = null;
+        if (input != null && computer != null) {
+            PushbackInputStream in = new PushbackInputStream(input, MonitorLoader.LOOKAHEAD);
+            input = in;
+            try {
+                loader = computer.loadMonitor(in);
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+            setActive(false);
+        }
+        return loader;
+    }
+
+    /*
+     * Save the BASIC program in memory straight to the output tape as a
+     * listing rather than writing it through the ACIA.  Returns the number
+     * of lines saved or -1 if the program could not be saved.
+     */
+    public int fastSave() {
+        int lines = -1;
+        if (output != null && computer != null) {
+            try {
+                lines = computer.saveBasic(output);
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+            setActive(true);
+        }
+        return lines;
+    }
+
     /*
      * Implement the IOBus interface to allow the recorder to be be
      * hooked up to the ACIA.
      */
 
     public int readByte() {
+        return readByte(tape);
+    }
+
+    // Only the current tape can be read, a device left over from an earlier
+    // tape gets nothing.  The tape can take a while to read, so it is read
+    // without holding the lock and the trap is kept away while it is.
+    private int readByte(IOBus from) {
+        InputStream in;
+        synchronized (this) {
+            if (from == null || from != tape)
+                return -1;
+            if (trapping && System.nanoTime() - trapTime < TRAP_HOLD)
+                return -1;
+            in = input;
+            reading = true;
+        }
+        int b = read(in);
+        synchronized (this) {
+            reading = false;
+            if (from != tape)
+                return -1;
+            if (b != -1)
+                aciaBytes += 1;
+        }
+        return b;
+    }
+
+    private int read(InputStream in) {
         int b = -1;
-        if (input != null) {
+        if (in != null) {
             try {
-                b = input.read();
+                b = in.read();
             } catch (IOException e) {
                 System.err.println(e);
             }
@@ -93,6 +214,19 @@ public class TapeRecorder implements IOBus {
         return b;
     }
 
+    // Number of bytes that can be read from the tape without waiting
+    private int available() {
+        int n = 0;
+        if (input != null) {
+            try {
+                n = input.available();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+        return n;
+    }
+
     public void writeByte(int value) {
         if (output != null) {
             try {
@@ -104,6 +238,48 @@ public class TapeRecorder implements IOBus {
         }
     }
 
+    /*
+     * Implement the processor trap for the monitor tape input routine.
+     * While the tape is playing the next byte is read straight from the tape
+     * so the processor does not have to poll the ACIA for it.  Any bytes the
+     * ACIA has already read from the tape have to be taken from the ACIA
+     * first, so the ACIA is given no more while the processor is waiting in
+     * the routine.  Other programs that read the ACIA get the tape again
+     * shortly after the processor stops using the routine.
+     *
+     * The trap runs on the processor thread so it only takes a byte the tape
+     * already has ready.  If there is none, or the ACIA is in the middle of
+     * reading one, the routine polls the ACIA as normal and the trap is tried
+     * again on the next time round the loop.
+     */
+    public synchronized int trap() {
+        if (computer == null || tape == null || computer.acia.getRxBus() != tape || reading)
+            return -1;
+        if (available() <= 0) {
+            trapping = false;
+            return -1;
+        }
+        trapping = true;
+        trapTime = System.nanoTime();
+        int b = -1;
+        if (computer.acia.getRxCount() - aciaStart >= aciaBytes) {
+            b = read(input);
+            if (b != -1)
+                trapBytes += 1;
+        }
+        return b;
+    }
+
+    // The input tape as seen by the ACIA
+    private class Tape implements IOBus {
+        public int readByte() {
+            return TapeRecorder.this.readByte(this);
+        }
+
+        public void writeByte(int value) {
+        }
+    }
+
     /*
      * GUI visualisation
      */
@@ -51,6 +51,11 @@ public class Trace implements Serializable {
             length = 0;
         }
 
+        // Empty entry, to be filled in from a copy of a saved entry
+        public Entry() {
+            instruction = new byte[3];
+        }
+
         // Update current entry with decoded instruction details
         public void addByte(byte b) {
             instruction[length++] = b;
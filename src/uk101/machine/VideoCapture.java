@@ -0,0 +1,161 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import uk101.hardware.Video;
+import uk101.hardware.bus.VideoBus;
+import uk101.view.component.GlyphAtlas;
+
+/**
+ * Captures the video display without needing a GUI, for automated runs.
+ * The visible part of the screen, as set by the screen.offset and
+ * screen.width configuration properties, can be returned as text or as an
+ * image drawn using the character generator ROM.
+ *
+ * Each write to the visible screen increases a sequence number, and
+ * callers can wait for the screen to change or for some text to appear.
+ * Any existing view (such as the video window) still gets all the updates.
+ * The capture only sees video writes while it is open, so there is no cost
+ * once it is closed.
+ */
+public class VideoCapture implements VideoBus {
+
+    private Video video;
+    private VideoBus view;
+    private int rows, cols;
+    private int width, offset;
+
+    private volatile long sequence;     // Visible screen writes
+    private volatile int waiting;       // Threads waiting for a change
+
+    public VideoCapture(Video video, Configuration cfg) {
+        this.video = video;
+        rows = video.rows;
+        cols = video.cols;
+        width = Math.min(cfg.getScreenWidth(), cols);
+        offset = Math.min(cfg.getScreenOffset(), cols - width);
+
+        view = video.getView();
+        video.setView(this);
+    }
+
+    /*
+     * Stop capturing, restoring any previous view
+     */
+    public void close() {
+        if (video.getView() == this) {
+            video.setView(view);
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /*
+     * Implement the VideoBus interface to see the video writes
+     */
+    public void updateVideo(int addr, byte b) {
+        if (view != null) {
+            view.updateVideo(addr, b);
+        }
+        int c = addr % cols - offset;
+        if (c >= 0 && c < width && addr / cols < rows) {
+            sequence += 1;
+            if (waiting > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /*
+     * Return the number of writes to the visible screen so far
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /*
+     * Return the visible screen as text, one line per row.  Characters
+     * outside the printable ASCII range are shown as '.'.
+     */
+    public String getText() {
+        StringBuilder sb = new StringBuilder(rows*(width+1));
+        for (int r = 0; r < rows; r++) {
+            int addr = r*cols + offset;
+            for (int c = 0; c < width; c++) {
+                byte b = video.store[addr+c];
+                sb.append((b > 31 && b < 127) ? (char)b : '.');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Return an image of the visible screen, with one pixel for each
+     * character generator pixel.
+     */
+    public BufferedImage getImage(Color colour) {
+        int cw = video.charWidth, ch = video.charHeight;
+        int stride = width*cw;
+        int fg = colour.getRGB() & 0xFFFFFF;
+        byte[] bitmaps = GlyphAtlas.getBitmaps(video.charSet, ch);
+
+        BufferedImage image = new BufferedImage(stride, rows*ch, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < width; c++) {
+                int glyph = video.store[r*cols + offset + c] & 0xFF;
+                GlyphAtlas.drawPixels(bitmaps, glyph, cw, ch, cw, ch, pixels, r*ch*stride + c*cw, stride, fg);
+            }
+        }
+        return image;
+    }
+
+    /*
+     * Wait until the screen changes from the given sequence number, or
+     * until the timeout (in milliseconds) is reached.  Returns the new
+     * sequence number, which is unchanged if the wait timed out.
+     */
+    public long waitForChange(long since, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            waiting += 1;
+            try {
+                long remaining = timeout;
+                while (sequence == since && remaining > 0 && video.getView() == this) {
+                    wait(remaining);
+                    remaining = end - System.currentTimeMillis();
+                }
+            } finally {
+                waiting -= 1;
+            }
+        }
+        return sequence;
+    }
+
+    /*
+     * Wait until some text appears on the screen, or until the timeout (in
+     * milliseconds) is reached.  Text is only matched within a single row.
+     */
+    public boolean waitForText(String text, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        long seen = sequence;
+        while (!getText().contains(text)) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0 || video.getView() != this)
+                return false;
+            seen = waitForChange(seen, remaining);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.utils;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import uk101.machine.CallGraph;
+import uk101.machine.Profile;
+
+/**
+ * This class will print the subroutine call graph from an execution profile.
+ *
+ * Usage:
+ *    PrintCalls [options] profile
+ *
+ * where:
+ *    profile: is the name of an execution profile file
+ *
+ * options:
+ *    -output outputfile: output file name, defaults to standard-out
+ *    -top count: number of subroutines to list, defaults to 25
+ *    -collapsed: print the call stacks in collapsed format
+ *
+ * The standard output lists the subroutines using the most CPU cycles, both
+ * inclusive and exclusive of the subroutines they call.  The collapsed format
+ * has one line per call stack, listing each subroutine entry point from the
+ * top level down separated by semicolons and followed by the number of CPU
+ * cycles used.  This is the input format for the standard flame graph tools.
+ */
+public class PrintCalls {
+
+    public static void main(String[] args) throws Exception {
+        // Handle parameters
+        Args.Map options = Args.optionMap();
+        options.put("output", "outputfile");
+        options.put("top", "count (entries to list, defaults to 25)");
+        options.put("collapsed", "?(call stacks for flame graph tools)");
+        Args parms = new Args(PrintCalls.class, "profile", args, options);
+        File inputFile = parms.getInputFile(1);
+        File outputFile = parms.getOutputFile("output");
+        int top = parms.getInteger("top", 25);
+        boolean collapsed = parms.getFlag("collapsed");
+
+        // Check parameters
+        if (inputFile == null || top < 1) {
+            parms.usage();
+        }
+
+        // Create input and output streams
+        PrintStream output = System.out;
+        if (outputFile != null) {
+            output = new PrintStream(outputFile);
+        }
+
+        // Read the profile file
+        Profile profile = Profile.readProfile(inputFile);
+        DateFormat df = DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.LONG);
+
+        if (profile != null && profile.calls != null) {
+            PrintCalls printer = new PrintCalls(output, profile);
+            if (collapsed) {
+                printer.printCollapsed();
+            } else {
+                output.println("UK101 Subroutine Calls");
+                output.println("created: " + df.format(profile.timestamp));
+                output.println();
+                printer.print(top);
+                output.println();
+            }
+        }
+        output.close();
+    }
+
+    /*
+     * Instances of this class can be used by other utilities
+     */
+
+    private PrintStream output;
+    private Profile profile;
+
+    public PrintCalls(PrintStream output, Profile profile) {
+        this.output = output;
+        this.profile = profile;
+    }
+
+    /*
+     * Totals for each subroutine, across all call paths.  Inclusive cycles
+     * are only counted for the outermost call of recursive subroutines.
+     */
+    static class Total {
+        String name;
+        long calls, inclusive, exclusive;
+        Total(String name) {
+            this.name = name;
+        }
+    }
+
+    public void print(int top) {
+        CallGraph.Node root = profile.calls.root;
+        long totalCycles = root.inclusive();
+
+        Total[] totals = new Total[2*profile.counts.length];
+        addTotals(root, totals, new int[totals.length]);
+
+        List<Total> list = new ArrayList<Total>();
+        for (Total t : totals) {
+            if (t != null)
+                list.add(t);
+        }
+        Collections.sort(list, new Comparator<Total>() {
+            public int compare(Total t1, Total t2) {
+                return (t1.inclusive < t2.inclusive) ? 1 : (t1.inclusive > t2.inclusive) ? -1 : 0;
+            }
+        });
+
+        output.println("CPU cycles: " + totalCycles);
+        output.println();
+        output.println("   inclusive       %     exclusive       %         calls  subroutine");
+        for (int i = 0; i < Math.min(top, list.size()); i++) {
+            Total t = list.get(i);
+            output.println(String.format("%12d %s  %12d %s  %12d  %s", t.inclusive, percent(t.inclusive, totalCycles),
+                    t.exclusive, percent(t.exclusive, totalCycles), t.calls, t.name));
+        }
+    }
+
+    private void addTotals(CallGraph.Node node, Total[] totals, int[] active) {
+        long inclusive = node.inclusive();
+        int key = key(node);
+        if (key >= 0) {
+            if (totals[key] == null)
+                totals[key] = new Total(name(node));
+            totals[key].calls += node.calls;
+            totals[key].exclusive += node.cycles;
+            if (active[key] == 0)
+                totals[key].inclusive += inclusive;
+            active[key] += 1;
+        }
+        for (CallGraph.Node child : node.children) {
+            addTotals(child, totals, active);
+        }
+        if (key >= 0)
+            active[key] -= 1;
+    }
+
+    /*
+     * Print each call stack in "collapsed" format
+     */
+    public void printCollapsed() {
+        printCollapsed(profile.calls.root, "UK101");
+    }
+
+    private void printCollapsed(CallGraph.Node node, String stack) {
+        if (node.cycles > 0) {
+            output.println(stack + " " + node.cycles);
+        }
+        for (CallGraph.Node child : node.children) {
+            printCollapsed(child, stack + ";" + name(child));
+        }
+    }
+
+    // Subroutines are identified by entry address, with separate entries for
+    // interrupt handlers.
+    private int key(CallGraph.Node node) {
+        return (node.entry < 0) ? -1 : (node.interrupt) ? node.entry + profile.counts.length : node.entry;
+    }
+
+    private String name(CallGraph.Node node) {
+        String s = String.format("%04X", node.entry);
+        String block = profile.blockName(node.entry);
+        if (block.length() > 0)
+            s = block + ":" + s;
+        if (node.interrupt)
+            s += "(IRQ)";
+        return s;
+    }
+
+    private static String percent(long value, long total) {
+        return String.format("%6.2f%%", (total == 0) ? 0.0 : (100.0*value)/total);
+    }
+}
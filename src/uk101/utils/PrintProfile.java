@@ -0,0 +1,359 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.utils;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk101.io.KansasCityDecoder;
+import uk101.io.Tape;
+import uk101.machine.Basic;
+import uk101.machine.BasicProfile;
+import uk101.machine.Profile;
+
+/**
+ * This class will print a formatted execution profile, or the differences
+ * between two execution profiles.
+ *
+ * Usage:
+ *    PrintProfile [options] profile [baseprofile]
+ *
+ * where:
+ *    profile: is the name of an execution profile file
+ *    baseprofile: is the name of an earlier profile to compare against
+ *
+ * options:
+ *    -output outputfile: output file name, defaults to standard-out
+ *    -top count: number of entries to list in each section, defaults to 25
+ *    -basic: only list the BASIC program lines
+ *    -program tapefile: BASIC program source, defaults to the program in memory
+ *
+ * Profile output lists the memory areas, instructions and basic blocks
+ * that used the most CPU cycles.  A basic block is a run of instructions
+ * that are always executed in sequence, ending with a branch or jump.  When
+ * a base profile is given the instructions are listed by the largest change
+ * in CPU cycles used.
+ *
+ * If a BASIC program was running the BASIC lines and GOSUB subroutines that
+ * used the most CPU cycles are also listed, along with the program text.
+ * The text is taken from the copy of memory saved in the profile unless a
+ * tape file (ASCII, binary or 300 baud audio) containing the program listing
+ * is given.
+ */
+public class PrintProfile {
+
+    public static void main(String[] args) throws Exception {
+        // Handle parameters
+        Args.Map options = Args.optionMap();
+        options.put("output", "outputfile");
+        options.put("top", "count (entries to list, defaults to 25)");
+        options.put("basic", "?(BASIC program lines only)");
+        options.put("program", "tapefile (BASIC program listing)");
+        Args parms = new Args(PrintProfile.class, "profile [baseprofile]", args, options);
+        File inputFile = parms.getInputFile(1);
+        File baseFile = parms.getInputFile(2);
+        File outputFile = parms.getOutputFile("output");
+        int top = parms.getInteger("top", 25);
+        boolean basicOnly = parms.getFlag("basic");
+        File programFile = parms.getInputFile("program");
+
+        // Check parameters
+        if (inputFile == null || top < 1) {
+            parms.usage();
+        }
+
+        // Create input and output streams
+        PrintStream output = System.out;
+        if (outputFile != null) {
+            output = new PrintStream(outputFile);
+        }
+
+        // Read the profile files
+        Profile profile = Profile.readProfile(inputFile);
+        Profile base = (baseFile != null) ? Profile.readProfile(baseFile) : null;
+        DateFormat df = DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.LONG);
+
+        if (profile != null && (baseFile == null || base != null)) {
+            output.println("UK101 Execution Profile");
+            output.println("created: " + df.format(profile.timestamp));
+            if (base != null) {
+                output.println("compared to: " + df.format(base.timestamp));
+            }
+            output.println();
+
+            PrintProfile printer = new PrintProfile(output, profile);
+            if (programFile != null) {
+                InputStream in = Tape.getInputStream(programFile, Tape.STREAM_SELECT, new KansasCityDecoder(300, 90));
+                if (in != null) {
+                    printer.setListing(Basic.readListing(in));
+                    in.close();
+                }
+            }
+            if (basicOnly) {
+                printer.printBasic(top);
+            } else if (base == null) {
+                printer.print(top);
+                printer.printBasic(top);
+            } else {
+                printer.printDiff(base, top);
+            }
+            output.println();
+        }
+    }
+
+    /*
+     * Instances of this class can be used by other utilities
+     */
+
+    private PrintStream output;
+    private Profile profile;
+    private Disassembler disasm;
+    private Map<Integer,String> listing;
+
+    public PrintProfile(PrintStream output, Profile profile) {
+        this.output = output;
+        this.profile = profile;
+        disasm = new Disassembler();
+    }
+
+    // Set the BASIC program text, rather than using the program in memory
+    public void setListing(Map<Integer,String> listing) {
+        this.listing = listing;
+    }
+
+    // Print the full profile report
+    public void print(int top) {
+        long totalCycles = profile.totalCycles();
+        output.println("Instructions: " + profile.totalCounts());
+        output.println("CPU cycles:   " + totalCycles);
+
+        // Cycles used by each area of memory
+        Map<String,long[]> areas = new LinkedHashMap<String,long[]>();
+        for (int addr = 0; addr < profile.cycles.length; addr++) {
+            if (profile.counts[addr] > 0) {
+                String name = profile.blockName(addr);
+                long[] area = areas.get(name);
+                if (area == null) {
+                    area = new long[1];
+                    areas.put(name, area);
+                }
+                area[0] += profile.cycles[addr];
+            }
+        }
+        output.println();
+        output.println("Memory:");
+        output.println("        cycles       %  memory");
+        for (Map.Entry<String,long[]> area : areas.entrySet()) {
+            long cycles = area.getValue()[0];
+            output.println(String.format("  %12d %s  %s", cycles, percent(cycles, totalCycles), area.getKey()));
+        }
+
+        // Hottest individual instructions
+        Integer[] addrs = executed();
+        Arrays.sort(addrs, new Comparator<Integer>() {
+            public int compare(Integer a1, Integer a2) {
+                return compareLong(profile.cycles[a2], profile.cycles[a1]);
+            }
+        });
+        output.println();
+        output.println("Instructions:");
+        output.println("        cycles       %         count  memory    instruction");
+        for (int i = 0; i < Math.min(top, addrs.length); i++) {
+            int addr = addrs[i];
+            output.println(String.format("  %12d %s  %12d  %-8s  %s", profile.cycles[addr],
+                    percent(profile.cycles[addr], totalCycles), profile.counts[addr],
+                    profile.blockName(addr), instruction(addr)));
+        }
+
+        // Hottest basic blocks
+        List<Block> blocks = findBlocks();
+        Collections.sort(blocks, new Comparator<Block>() {
+            public int compare(Block b1, Block b2) {
+                return compareLong(b2.cycles, b1.cycles);
+            }
+        });
+        output.println();
+        output.println("Blocks:");
+        output.println("        cycles       %       entries  memory    block");
+        for (int i = 0; i < Math.min(top, blocks.size()); i++) {
+            Block block = blocks.get(i);
+            output.println(String.format("  %12d %s  %12d  %-8s  %s-%s (%d instructions)", block.cycles,
+                    percent(block.cycles, totalCycles), block.entries, profile.blockName(block.start),
+                    hex(block.start), hex(block.end), block.size));
+            for (int addr = block.start; addr <= block.end; addr += disasm.instrSize) {
+                output.println(String.format("%46s  %s", "", instruction(addr)));
+            }
+        }
+    }
+
+    // Print the differences from a base profile
+    public void printDiff(final Profile base, int top) {
+        long totalCycles = profile.totalCycles();
+        long baseCycles = base.totalCycles();
+        output.println("Instructions: " + profile.totalCounts() + " (was " + base.totalCounts() + ")");
+        output.println("CPU cycles:   " + totalCycles + " (was " + baseCycles + ")");
+
+        // Instructions with the largest changes
+        List<Integer> addrs = new ArrayList<Integer>();
+        for (int addr = 0; addr < profile.cycles.length; addr++) {
+            if (profile.cycles[addr] != base.cycles[addr])
+                addrs.add(addr);
+        }
+        Collections.sort(addrs, new Comparator<Integer>() {
+            public int compare(Integer a1, Integer a2) {
+                long d1 = Math.abs(profile.cycles[a1] - base.cycles[a1]);
+                long d2 = Math.abs(profile.cycles[a2] - base.cycles[a2]);
+                return compareLong(d2, d1);
+            }
+        });
+        output.println();
+        output.println("Changes:");
+        output.println("        cycles     was cycles        change  memory    instruction");
+        for (int i = 0; i < Math.min(top, addrs.size()); i++) {
+            int addr = addrs.get(i);
+            output.println(String.format("  %12d   %12d  %+12d  %-8s  %s", profile.cycles[addr], base.cycles[addr],
+                    profile.cycles[addr] - base.cycles[addr], profile.blockName(addr), instruction(addr)));
+        }
+    }
+
+    // Print the BASIC program lines and subroutines
+    public void printBasic(int top) {
+        final BasicProfile basic = profile.basic;
+        if (basic == null || basic.isEmpty())
+            return;
+        if (listing == null)
+            listing = new Basic(profile.store).listing();
+
+        long totalCycles = profile.totalCycles();
+        List<Integer> lines = new ArrayList<Integer>();
+        List<Integer> targets = new ArrayList<Integer>();
+        for (int line = 0; line < basic.statements.length; line++) {
+            if (basic.statements[line] > 0)
+                lines.add(line);
+            if (basic.gosubs[line] > 0)
+                targets.add(line);
+        }
+
+        // Hottest lines
+        Collections.sort(lines, new Comparator<Integer>() {
+            public int compare(Integer l1, Integer l2) {
+                return compareLong(basic.cycles[l2], basic.cycles[l1]);
+            }
+        });
+        output.println();
+        output.println("BASIC lines:");
+        output.println("        cycles       %    statements  line");
+        for (int i = 0; i < Math.min(top, lines.size()); i++) {
+            int line = lines.get(i);
+            output.println(String.format("  %12d %s  %12d  %s", basic.cycles[line],
+                    percent(basic.cycles[line], totalCycles), basic.statements[line], basicLine(line)));
+        }
+
+        // Hottest subroutines
+        if (!targets.isEmpty()) {
+            Collections.sort(targets, new Comparator<Integer>() {
+                public int compare(Integer l1, Integer l2) {
+                    return compareLong(basic.gosubCycles[l2], basic.gosubCycles[l1]);
+                }
+            });
+            output.println();
+            output.println("BASIC subroutines:");
+            output.println("        cycles       %         calls  line");
+            for (int i = 0; i < Math.min(top, targets.size()); i++) {
+                int line = targets.get(i);
+                output.println(String.format("  %12d %s  %12d  %s", basic.gosubCycles[line],
+                        percent(basic.gosubCycles[line], totalCycles), basic.gosubs[line], basicLine(line)));
+            }
+        }
+    }
+
+    // Line number and text of a BASIC line
+    private String basicLine(int line) {
+        String text = listing.get(line);
+        return (text != null) ? line + " " + text : Integer.toString(line);
+    }
+
+    /*
+     * A basic block is a run of consecutive instructions, entered only at
+     * the first instruction and ending at a branch or jump.  So every
+     * instruction in the block should have been executed the same number
+     * of times.
+     */
+    static class Block {
+        int start, end, size;
+        long entries, cycles;
+        Block(int addr, long count) {
+            start = addr;
+            entries = count;
+        }
+    }
+
+    private List<Block> findBlocks() {
+        List<Block> blocks = new ArrayList<Block>();
+        Block block = null;
+        boolean jump = true;
+        int next = -1;
+        for (int addr = 0; addr < profile.counts.length; addr++) {
+            if (profile.counts[addr] > 0) {
+                instruction(addr);
+                if (jump || addr != next || profile.counts[addr] != block.entries) {
+                    block = new Block(addr, profile.counts[addr]);
+                    blocks.add(block);
+                }
+                block.end = addr;
+                block.size += 1;
+                block.cycles += profile.cycles[addr];
+                next = addr + disasm.instrSize;
+                jump = isJump();
+            }
+        }
+        return blocks;
+    }
+
+    // Did the last decoded instruction change the flow of control?
+    private boolean isJump() {
+        String op = disasm.instrText;
+        return disasm.instrMode == Disassembler.MODE_RELATIVE || op.equals("JMP") || op.equals("JSR") ||
+                op.equals("RTS") || op.equals("RTI") || op.equals("BRK") || op.startsWith("@@");
+    }
+
+    // Addresses of all executed instructions
+    private Integer[] executed() {
+        List<Integer> addrs = new ArrayList<Integer>();
+        for (int addr = 0; addr < profile.counts.length; addr++) {
+            if (profile.counts[addr] > 0)
+                addrs.add(addr);
+        }
+        return addrs.toArray(new Integer[0]);
+    }
+
+    // Disassemble the instruction at an address
+    private String instruction(int addr) {
+        disasm.reset(profile.store, profile.store.length, 0, 0, addr);
+        return disasm.nextInstruction();
+    }
+
+    private static String percent(long value, long total) {
+        return String.format("%6.2f%%", (total == 0) ? 0.0 : (100.0*value)/total);
+    }
+
+    private static String hex(int addr) {
+        return String.format("%04X", addr);
+    }
+
+    private static int compareLong(long l1, long l2) {
+        return (l1 < l2) ? -1 : (l1 > l2) ? 1 : 0;
+    }
+}
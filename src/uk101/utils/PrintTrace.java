@@ -25,6 +25,7 @@ import uk101.machine.Trace;
  *
  * options:
  *    -output outputfile: output file name, defaults to standard-out
+ *    -threads count: number of formatting threads, defaults to the number of processors
  *
  * Trace output format is
  *
@@ -44,12 +45,14 @@ public class PrintTrace {
         // Handle parameters
         Args.Map options = Args.optionMap();
         options.put("output", "outputfile");
+        options.put("threads", "count (formatting threads)");
         Args parms = new Args(PrintTrace.class, "tracefile", args, options);
         File inputFile = parms.getInputFile(1);
         File outputFile = parms.getOutputFile("output");
+        int threads = parms.getInteger("threads", Runtime.getRuntime().availableProcessors());
 
         // Check parameters
-        if (inputFile == null) {
+        if (inputFile == null || threads < 1) {
             parms.usage();
         }
 
@@ -67,11 +70,13 @@ public class PrintTrace {
         output.println("created: " + df.format(trace.timestamp));
         output.println();
 
-        // Format the output
-        PrintTrace tracer = new PrintTrace(output);
+        // Format the output, using the parallel formatter
+        output.flush();
+        TraceFormatter.Pipeline pipeline = new TraceFormatter.Pipeline(output, threads);
         for (Trace.Entry entry = trace.nextEntry(); entry != null; entry = trace.nextEntry()) {
-            tracer.print(entry);
+            pipeline.add(entry);
         }
+        pipeline.close();
         output.println();
     }
 
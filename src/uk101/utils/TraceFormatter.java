@@ -0,0 +1,246 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import uk101.hardware.CPU6502;
+import uk101.machine.Trace;
+
+/**
+ * Fast formatting of instruction trace entries, giving exactly the same
+ * output as PrintTrace.print.  The 6502 has a fixed set of opcodes, flag
+ * values and signal states so all the text for these is built once, and the
+ * entries are formatted into a reusable StringBuilder.
+ *
+ * The Pipeline class formats a whole trace.  Entries are collected into
+ * chunks which are formatted in parallel and then written out in their
+ * original order.
+ */
+public class TraceFormatter {
+
+    private static final String NEWLINE = System.getProperty("line.separator");
+    private static final String SPACES32 = "                                ";
+
+    // Precomputed text for every opcode, flag value and signal state
+    private static final char[] HEX = new char[512];
+    private static final String[] TEXT = new String[256];
+    private static final int[] MODE = new int[256];
+    private static final int[] SIZE = new int[256];
+    private static final String[] FLAGS = new String[256];
+    private static final String[] SIGNALS = new String[8];
+
+    static {
+        String digits = "0123456789ABCDEF";
+        Disassembler disasm = new Disassembler();
+        for (int i = 0; i < 256; i++) {
+            HEX[2*i] = digits.charAt(i >> 4);
+            HEX[2*i+1] = digits.charAt(i & 0xF);
+            disasm.reset(new byte[] { (byte)i, 0, 0 }, 3, 0, 0, 0);
+            disasm.nextInstruction();
+            TEXT[i] = "  " + disasm.instrText + " ";
+            MODE[i] = disasm.instrMode;
+            SIZE[i] = disasm.instrSize;
+            FLAGS[i] = CPU6502.toFlagString((byte)i);
+        }
+        for (int i = 0; i < 8; i++) {
+            SIGNALS[i] = CPU6502.toSigString((i & 4) != 0, (i & 2) != 0, (i & 1) != 0);
+        }
+    }
+
+    private StringBuilder line;
+    private Disassembler disasm;
+
+    public TraceFormatter() {
+        line = new StringBuilder(100);
+        disasm = new Disassembler();
+    }
+
+    // Return the formatted text for a single entry
+    public String format(Trace.Entry entry) {
+        line.setLength(0);
+        append(line, entry);
+        return line.toString();
+    }
+
+    /*
+     * Append the formatted text for an entry to a StringBuilder.  This
+     * matches the layout of PrintTrace.
+     */
+    public void append(StringBuilder sb, Trace.Entry entry) {
+        int start = sb.length();
+        int op = entry.instruction[0] & 0xFF;
+        int mode = MODE[op];
+        int size = SIZE[op];
+        if (entry.length == 0 || entry.length < size) {
+            // Incomplete instruction, leave to the disassembler
+            disasm.reset(entry.instruction, entry.length, 0, entry.PC, entry.PC);
+            sb.append(disasm.nextInstruction());
+            mode = disasm.instrMode;
+        } else {
+            int pc = entry.PC & 0xFFFF;
+            int lo = entry.instruction[1] & 0xFF;
+            int hi = entry.instruction[2] & 0xFF;
+            hex4(sb, pc).append(":  ");
+            for (int i = 0; i < 3; i++) {
+                if (i < size)
+                    hex2(sb, entry.instruction[i] & 0xFF).append(' ');
+                else
+                    sb.append("   ");
+            }
+            sb.append(TEXT[op]);
+            switch (mode) {
+            default: break;
+            case Disassembler.MODE_ACCUMULATOR: sb.append('A');                                     break;
+            case Disassembler.MODE_IMMEDIATE:   hex2(sb.append("#$"), lo);                          break;
+            case Disassembler.MODE_ABSOLUTE:    hex4(sb.append('$'), (hi << 8) + lo);               break;
+            case Disassembler.MODE_INDIRECT:    hex4(sb.append("($"), (hi << 8) + lo).append(')');  break;
+            case Disassembler.MODE_ZEROPAGE:    hex2(sb.append('$'), lo);                           break;
+            case Disassembler.MODE_RELATIVE:    hex4(sb.append('$'), pc + (byte)lo + 2);            break;
+            case Disassembler.MODE_ABS_X:       hex4(sb.append('$'), (hi << 8) + lo).append(",X");  break;
+            case Disassembler.MODE_ABS_Y:       hex4(sb.append('$'), (hi << 8) + lo).append(",Y");  break;
+            case Disassembler.MODE_PRE_X:       hex2(sb.append("($"), lo).append(",X)");            break;
+            case Disassembler.MODE_POST_Y:      hex2(sb.append("($"), lo).append("),Y");            break;
+            case Disassembler.MODE_0PAGE_X:     hex2(sb.append('$'), lo).append(",X");              break;
+            case Disassembler.MODE_0PAGE_Y:     hex2(sb.append('$'), lo).append(",Y");              break;
+            }
+        }
+        sb.append(SPACES32, 0, Math.max(0, 32 - (sb.length() - start))).append(';');
+
+        int a = entry.A & 0xFF;
+        hex2(sb.append(" A="), a);
+        if (a > 31 && a < 127)
+            sb.append('[').append((char)a).append(']');
+        else
+            sb.append("   ");
+        hex2(sb.append(" X="), entry.X & 0xFF);
+        hex2(sb.append(" Y="), entry.Y & 0xFF);
+        hex2(sb.append(" S="), entry.S & 0xFF);
+        sb.append(" P=").append(FLAGS[entry.P & 0xFF]);
+        sb.append(' ').append(SIGNALS[(entry.RST ? 4 : 0) + (entry.NMI ? 2 : 0) + (entry.IRQ ? 1 : 0)]);
+        if (mode > Disassembler.MODE_RELATIVE) {
+            hex4(sb.append("  EA="), entry.addr);
+            hex2(sb.append(','), entry.data & 0xFF);
+        }
+    }
+
+    private static StringBuilder hex2(StringBuilder sb, int b) {
+        return sb.append(HEX, 2*b, 2);
+    }
+
+    private static StringBuilder hex4(StringBuilder sb, int w) {
+        return sb.append(HEX, 2*((w >> 8) & 0xFF), 2).append(HEX, 2*(w & 0xFF), 2);
+    }
+
+    /*
+     * Format a complete trace in parallel.  Entries are added in order and
+     * collected into chunks, each chunk being formatted as a separate task.
+     * The number of chunks in progress is limited so the reader cannot get
+     * too far ahead of the output.
+     */
+    public static class Pipeline {
+        static final int CHUNK_SIZE = 4096;
+
+        private ForkJoinPool pool;
+        private WritableByteChannel channel;
+        private Queue<Chunk> pending;
+        private int maxPending;
+        private Trace.Entry[] entries;
+        private int count;
+
+        public Pipeline(OutputStream out, int threads) {
+            pool = new ForkJoinPool(threads);
+            channel = Channels.newChannel(out);
+            pending = new ArrayDeque<Chunk>();
+            maxPending = 2*threads + 2;
+            entries = new Trace.Entry[CHUNK_SIZE];
+        }
+
+        public void add(Trace.Entry entry) throws IOException {
+            entries[count++] = entry;
+            if (count == CHUNK_SIZE) {
+                submit();
+            }
+        }
+
+        // Write any remaining output and stop the worker threads
+        public void close() throws IOException {
+            submit();
+            while (!pending.isEmpty()) {
+                write(pending.remove());
+            }
+            pool.shutdown();
+        }
+
+        private void submit() throws IOException {
+            if (count > 0) {
+                Chunk chunk = new Chunk(entries, count);
+                pool.execute(chunk);
+                pending.add(chunk);
+                entries = new Trace.Entry[CHUNK_SIZE];
+                count = 0;
+            }
+            if (pending.size() >= maxPending) {
+                write(pending.remove());
+            }
+        }
+
+        private void write(Chunk chunk) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk.join());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // A chunk of entries, formatted by one of the pool threads
+    @SuppressWarnings("serial")
+    static class Chunk extends RecursiveTask<byte[]> {
+        private static final ThreadLocal<TraceFormatter> formatters = new ThreadLocal<TraceFormatter>() {
+            protected TraceFormatter initialValue() {
+                return new TraceFormatter();
+            }
+        };
+        private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+            protected StringBuilder initialValue() {
+                return new StringBuilder(100*Pipeline.CHUNK_SIZE);
+            }
+        };
+
+        private Trace.Entry[] entries;
+        private int count;
+
+        Chunk(Trace.Entry[] entries, int count) {
+            this.entries = entries;
+            this.count = count;
+        }
+
+        protected byte[] compute() {
+            TraceFormatter formatter = formatters.get();
+            StringBuilder sb = buffers.get();
+            sb.setLength(0);
+            for (int i = 0; i < count; i++) {
+                formatter.append(sb, entries[i]);
+                sb.append(NEWLINE);
+            }
+            entries = null;
+
+            // All the text is ASCII
+            byte[] bytes = new byte[sb.length()];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = (byte)sb.charAt(i);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk101.hardware.Memory;
+import uk101.machine.Data;
+import uk101.machine.Trace;
+
+/**
+ * A random access index for an instruction trace file.  The trace file is
+ * a single compressed stream so can only be read from start to end.  The
+ * index holds a fixed size copy of every trace entry, so any instruction can
+ * be found from its number, plus lists of the instruction numbers for each
+ * instruction address, each effective address and each address written to.
+ *
+ * The index is built in two passes.  First the trace is read and the fixed
+ * size entries are written to the index file.  Then the entries are split
+ * into segments and the occurrence lists are built in parallel, first
+ * counting the occurrences in each segment and then, once the position of
+ * each segment's part of each list is known, filling in the lists.
+ *
+ * The index is saved as tracefile.index and will be reused as long as the
+ * trace file has not changed.
+ */
+public class TraceIndex {
+
+    // Index file header
+    static final long MAGIC = 0x554B313031494458L;  // "UK101IDX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 128;
+
+    // Fixed size entries: PC(2) A X Y S P flags length instruction(3) EA(2) data
+    static final int ENTRY_SIZE = 16;
+    static final int FLAG_RST = 0x01;
+    static final int FLAG_NMI = 0x02;
+    static final int FLAG_IRQ = 0x04;
+    static final int FLAG_EA = 0x10;
+    static final int FLAG_WRITE = 0x20;
+
+    // Entries are mapped in chunks of up to 1GB
+    static final int CHUNK_SHIFT = 26;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    // Occurrence lists
+    public static final int LIST_PC = 0;
+    public static final int LIST_EA = 1;
+    public static final int LIST_WRITE = 2;
+    static final int LISTS = 3;
+    static final int KEYS = Memory.K64;
+
+    // Opcodes that have an effective address and that write to it
+    private static final boolean[] hasEA = new boolean[256];
+    private static final boolean[] isWrite = new boolean[256];
+    static {
+        Disassembler disasm = new Disassembler();
+        for (int op = 0; op < 256; op++) {
+            disasm.reset(new byte[] { (byte)op, 0, 0 }, 3, 0, 0, 0);
+            disasm.nextInstruction();
+            String s = disasm.instrText;
+            hasEA[op] = (disasm.instrMode > Disassembler.MODE_RELATIVE);
+            isWrite[op] = hasEA[op] && (s.equals("STA") || s.equals("STX") || s.equals("STY") ||
+                    s.equals("INC") || s.equals("DEC") || s.equals("ASL") || s.equals("LSR") ||
+                    s.equals("ROL") || s.equals("ROR"));
+        }
+    }
+
+    private RandomAccessFile file;
+    private MappedByteBuffer[] entries;
+    private IntBuffer[] lists;
+    private int[][] starts;
+    private int count;
+
+    /*
+     * Open the index for a trace, building it if it does not exist or if
+     * the trace has changed since it was built.
+     */
+    public static TraceIndex open(File traceFile, boolean rebuild) throws IOException {
+        File indexFile = new File(traceFile.getPath() + ".index");
+        if (rebuild || !isValid(indexFile, traceFile)) {
+            build(traceFile, indexFile);
+        }
+        return new TraceIndex(indexFile);
+    }
+
+    private TraceIndex(File indexFile) throws IOException {
+        file = new RandomAccessFile(indexFile, "r");
+        FileChannel channel = file.getChannel();
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        Header h = new Header(header);
+        count = h.count;
+
+        entries = new MappedByteBuffer[(count + CHUNK_SIZE - 1) >> CHUNK_SHIFT];
+        for (int i = 0; i < entries.length; i++) {
+            long first = (long)i << CHUNK_SHIFT;
+            long size = Math.min(CHUNK_SIZE, count - first) * ENTRY_SIZE;
+            entries[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first*ENTRY_SIZE, size);
+        }
+
+        starts = new int[LISTS][KEYS+1];
+        lists = new IntBuffer[LISTS];
+        for (int t = 0; t < LISTS; t++) {
+            channel.map(FileChannel.MapMode.READ_ONLY, h.startsOffset(t), 4*(KEYS+1)).asIntBuffer().get(starts[t]);
+            lists[t] = channel.map(FileChannel.MapMode.READ_ONLY, h.listOffset(t), 4L*h.sizes[t]).asIntBuffer();
+        }
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /*
+     * Query the index
+     */
+
+    // Number of trace entries
+    public int count() {
+        return count;
+    }
+
+    // Size of an occurrence list
+    public int size(int list) {
+        return starts[list][KEYS];
+    }
+
+    // Number of occurrences of an address in a list
+    public int occurrences(int list, int addr) {
+        return starts[list][addr+1] - starts[list][addr];
+    }
+
+    // Instruction number of an occurrence of an address in a list
+    public int occurrence(int list, int addr, int i) {
+        return lists[list].get(starts[list][addr] + i);
+    }
+
+    // Return a trace entry by instruction number (starting from 0)
+    public Trace.Entry entry(int n) {
+        ByteBuffer b = entries[n >> CHUNK_SHIFT];
+        int pos = (n & (CHUNK_SIZE-1)) * ENTRY_SIZE;
+        Trace.Entry entry = new Trace.Entry();
+        entry.PC = b.getShort(pos);
+        entry.A = b.get(pos+2);
+        entry.X = b.get(pos+3);
+        entry.Y = b.get(pos+4);
+        entry.S = b.get(pos+5);
+        entry.P = b.get(pos+6);
+        int flags = b.get(pos+7);
+        entry.RST = (flags & FLAG_RST) != 0;
+        entry.NMI = (flags & FLAG_NMI) != 0;
+        entry.IRQ = (flags & FLAG_IRQ) != 0;
+        entry.length = b.get(pos+8);
+        for (int i = 0; i < 3; i++)
+            entry.instruction[i] = b.get(pos+9+i);
+        entry.addr = Data.asAddr(b.getShort(pos+12));
+        entry.data = b.get(pos+14);
+        return entry;
+    }
+
+    // Does a trace entry have an effective address, or write to it?
+    public static boolean hasAddress(Trace.Entry entry) {
+        return entry.length > 0 && hasEA[entry.instruction[0] & 0xFF];
+    }
+
+    public static boolean isWrite(Trace.Entry entry) {
+        return entry.length > 0 && isWrite[entry.instruction[0] & 0xFF];
+    }
+
+    /*
+     * Index file header
+     */
+    static class Header {
+        long traceLength, traceModified;
+        int count;
+        int[] sizes = new int[LISTS];
+
+        Header() {
+        }
+
+        Header(ByteBuffer b) throws IOException {
+            if (b.getLong(0) != MAGIC || b.getInt(8) != VERSION)
+                throw new IOException("Not a trace index");
+            traceLength = b.getLong(12);
+            traceModified = b.getLong(20);
+            count = b.getInt(28);
+            for (int t = 0; t < LISTS; t++)
+                sizes[t] = b.getInt(32 + 4*t);
+        }
+
+        void write(ByteBuffer b) {
+            b.putLong(0, MAGIC);
+            b.putInt(8, VERSION);
+            b.putLong(12, traceLength);
+            b.putLong(20, traceModified);
+            b.putInt(28, count);
+            for (int t = 0; t < LISTS; t++)
+                b.putInt(32 + 4*t, sizes[t]);
+        }
+
+        // Section offsets: header, entries, list starts, lists
+        long startsOffset(int list) {
+            return HEADER_SIZE + (long)count*ENTRY_SIZE + 4L*(KEYS+1)*list;
+        }
+
+        long listOffset(int list) {
+            long offset = startsOffset(LISTS);
+            for (int t = 0; t < list; t++)
+                offset += 4L*sizes[t];
+            return offset;
+        }
+    }
+
+    // Check an existing index matches the trace
+    private static boolean isValid(File indexFile, File traceFile) {
+        boolean valid = false;
+        if (indexFile.exists()) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+                try {
+                    Header h = new Header(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE));
+                    valid = (h.traceLength == traceFile.length() && h.traceModified == traceFile.lastModified() &&
+                            raf.length() == h.listOffset(LISTS));
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    /*
+     * Build the index file
+     */
+    public static void build(File traceFile, File indexFile) throws IOException {
+        Trace trace = Trace.readTrace(traceFile);
+        if (trace == null)
+            throw new IOException("Unable to read trace " + traceFile);
+
+        // Pass 1: copy the trace entries
+        Header h = new Header();
+        h.traceLength = traceFile.length();
+        h.traceModified = traceFile.lastModified();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 65536));
+        try {
+            out.write(new byte[HEADER_SIZE]);
+            for (Trace.Entry entry = trace.nextEntry(); entry != null; entry = trace.nextEntry()) {
+                if (h.count == Integer.MAX_VALUE/4)
+                    throw new IOException("Trace too large to index");
+                writeEntry(out, entry);
+                h.count += 1;
+            }
+        } finally {
+            out.close();
+        }
+
+        // Pass 2: build the occurrence lists in parallel
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            FileChannel channel = raf.getChannel();
+            List<Segment> segments = Segment.split(channel, h.count);
+
+            // Count the occurrences in each segment
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (final Segment s : segments) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        s.count();
+                        return null;
+                    }
+                });
+            }
+            invoke(pool, tasks);
+
+            // Turn the counts into list positions
+            int[][] starts = new int[LISTS][KEYS+1];
+            for (int t = 0; t < LISTS; t++) {
+                int pos = 0;
+                for (int k = 0; k < KEYS; k++) {
+                    starts[t][k] = pos;
+                    for (Segment s : segments) {
+                        int n = s.cursors[t][k];
+                        s.cursors[t][k] = pos;
+                        pos += n;
+                    }
+                }
+                starts[t][KEYS] = pos;
+                h.sizes[t] = pos;
+            }
+            raf.setLength(h.listOffset(LISTS));
+            for (int t = 0; t < LISTS; t++) {
+                channel.map(FileChannel.MapMode.READ_WRITE, h.startsOffset(t), 4*(KEYS+1)).asIntBuffer().put(starts[t]);
+            }
+
+            // Fill in the lists
+            final IntBuffer[] lists = new IntBuffer[LISTS];
+            for (int t = 0; t < LISTS; t++) {
+                lists[t] = channel.map(FileChannel.MapMode.READ_WRITE, h.listOffset(t), 4L*h.sizes[t]).asIntBuffer();
+            }
+            tasks.clear();
+            for (final Segment s : segments) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        s.fill(lists);
+                        return null;
+                    }
+                });
+            }
+            invoke(pool, tasks);
+
+            // Finally write the header to mark the index complete
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            h.write(header);
+            header.force();
+        } finally {
+            pool.shutdown();
+            raf.close();
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, Trace.Entry entry) throws IOException {
+        int op = (entry.length > 0) ? (entry.instruction[0] & 0xFF) : -1;
+        int flags = (entry.RST ? FLAG_RST : 0) | (entry.NMI ? FLAG_NMI : 0) | (entry.IRQ ? FLAG_IRQ : 0);
+        if (op != -1 && hasEA[op])
+            flags |= FLAG_EA;
+        if (op != -1 && isWrite[op])
+            flags |= FLAG_WRITE;
+        out.writeShort(entry.PC);
+        out.writeByte(entry.A);
+        out.writeByte(entry.X);
+        out.writeByte(entry.Y);
+        out.writeByte(entry.S);
+        out.writeByte(entry.P);
+        out.writeByte(flags);
+        out.writeByte(entry.length);
+        for (int i = 0; i < 3; i++)
+            out.writeByte(entry.instruction[i]);
+        out.writeShort(entry.addr);
+        out.writeByte(entry.data);
+        out.writeByte(0);
+    }
+
+    private static void invoke(ExecutorService pool, List<Callable<Object>> tasks) throws IOException {
+        try {
+            for (Future<Object> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /*
+     * A segment of the trace entries handled by one worker.  The cursors
+     * first hold the count of each address and then the next position in
+     * each list.
+     */
+    static class Segment {
+        ByteBuffer entries;
+        int first, size;
+        int[][] cursors;
+
+        Segment(FileChannel channel, int first, int size) throws IOException {
+            this.first = first;
+            this.size = size;
+            entries = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + (long)first*ENTRY_SIZE, (long)size*ENTRY_SIZE);
+            cursors = new int[LISTS][KEYS];
+        }
+
+        // Split the entries into at least one segment per processor
+        static List<Segment> split(FileChannel channel, int count) throws IOException {
+            int n = Math.max(Runtime.getRuntime().availableProcessors(), (count + CHUNK_SIZE - 1) >> CHUNK_SHIFT);
+            int size = Math.max(1, (count + n - 1) / n);
+            List<Segment> segments = new ArrayList<Segment>();
+            for (int first = 0; first < count; first += size) {
+                segments.add(new Segment(channel, first, Math.min(size, count - first)));
+            }
+            return segments;
+        }
+
+        void count() {
+            for (int i = 0; i < size; i++) {
+                int pos = i*ENTRY_SIZE;
+                int flags = entries.get(pos+7);
+                cursors[LIST_PC][entries.getShort(pos) & 0xFFFF] += 1;
+                if ((flags & FLAG_EA) != 0) {
+                    int ea = entries.getShort(pos+12) & 0xFFFF;
+                    cursors[LIST_EA][ea] += 1;
+                    if ((flags & FLAG_WRITE) != 0)
+                        cursors[LIST_WRITE][ea] += 1;
+                }
+            }
+        }
+
+        void fill(IntBuffer[] lists) {
+            IntBuffer[] out = new IntBuffer[LISTS];
+            for (int t = 0; t < LISTS; t++)
+                out[t] = lists[t].duplicate();
+            for (int i = 0; i < size; i++) {
+                int pos = i*ENTRY_SIZE;
+                int flags = entries.get(pos+7);
+                int pc = entries.getShort(pos) & 0xFFFF;
+                out[LIST_PC].put(cursors[LIST_PC][pc]++, first+i);
+                if ((flags & FLAG_EA) != 0) {
+                    int ea = entries.getShort(pos+12) & 0xFFFF;
+                    out[LIST_EA].put(cursors[LIST_EA][ea]++, first+i);
+                    if ((flags & FLAG_WRITE) != 0)
+                        out[LIST_WRITE].put(cursors[LIST_WRITE][ea]++, first+i);
+                }
+            }
+        }
+    }
+}
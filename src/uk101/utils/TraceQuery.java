@@ -0,0 +1,193 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.utils;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.text.DateFormat;
+
+import uk101.machine.Data;
+import uk101.machine.Trace;
+
+/**
+ * This class will search an instruction trace using an index, which is
+ * built the first time the trace is searched.
+ *
+ * Usage:
+ *    TraceQuery [options] tracefile
+ *
+ * where:
+ *    tracefile: is the name of an instruction trace file
+ *
+ * options:
+ *    -output outputfile: output file name, defaults to standard-out
+ *    -entry number: print the instruction with this number (from 0)
+ *    -count count: number of instructions to print with -entry, defaults to 1
+ *    -pc address: find executions of the instruction at this address
+ *    -ea address: find instructions with this effective address
+ *    -write address: find instructions that write to this address
+ *    -a value: only include instructions where A has this value
+ *    -x value: only include instructions where X has this value
+ *    -y value: only include instructions where Y has this value
+ *    -limit count: maximum number of instructions to print
+ *    -rebuild: rebuild the index
+ *
+ * Addresses and values can be given in decimal or in hex as $nnnn.  For
+ * example "-write $0200" or "-pc $FD00 -a $0D".  Each matching instruction
+ * is printed in the same format as PrintTrace, preceded by its instruction
+ * number.  Register values given on their own are checked against every
+ * instruction in the trace.  With no search options a summary of the trace
+ * is printed.
+ */
+public class TraceQuery {
+
+    public static void main(String[] args) throws Exception {
+        // Handle parameters
+        Args.Map options = Args.optionMap();
+        options.put("output", "outputfile");
+        options.put("entry", "number (instruction number)");
+        options.put("count", "count (instructions to print from entry)");
+        options.put("pc", "address (instruction address)");
+        options.put("ea", "address (effective address)");
+        options.put("write", "address (address written to)");
+        options.put("a", "value (accumulator value)");
+        options.put("x", "value (X register value)");
+        options.put("y", "value (Y register value)");
+        options.put("limit", "count (maximum instructions to print)");
+        options.put("rebuild", "?(rebuild the index)");
+        Args parms = new Args(TraceQuery.class, "tracefile", args, options);
+        File inputFile = parms.getInputFile(1);
+        File outputFile = parms.getOutputFile("output");
+        int entry = parms.getHexInteger("entry", -1);
+        int count = parms.getHexInteger("count", 1);
+        int pc = parms.getHexInteger("pc", -1);
+        int ea = parms.getHexInteger("ea", -1);
+        int write = parms.getHexInteger("write", -1);
+        int a = parms.getHexInteger("a", -1);
+        int x = parms.getHexInteger("x", -1);
+        int y = parms.getHexInteger("y", -1);
+        int limit = parms.getHexInteger("limit", Integer.MAX_VALUE);
+        boolean rebuild = parms.getFlag("rebuild");
+
+        // Check parameters
+        if (inputFile == null || count < 1 || limit < 1 ||
+                pc > 0xFFFF || ea > 0xFFFF || write > 0xFFFF || a > 0xFF || x > 0xFF || y > 0xFF) {
+            parms.usage();
+        }
+
+        // Create input and output streams
+        PrintStream output = System.out;
+        if (outputFile != null) {
+            output = new PrintStream(outputFile);
+        }
+
+        // Open the trace and index
+        Trace trace = Trace.readTrace(inputFile);
+        if (trace != null) {
+            TraceIndex index = TraceIndex.open(inputFile, rebuild);
+            DateFormat df = DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.LONG);
+
+            output.println("UK101 6502 Instruction Trace");
+            output.println("created: " + df.format(trace.timestamp));
+            output.println();
+
+            TraceQuery query = new TraceQuery(output, index);
+            if (entry >= 0) {
+                query.printEntries(entry, count);
+            } else if (write >= 0 || ea >= 0 || pc >= 0 || a >= 0 || x >= 0 || y >= 0) {
+                query.setFilter(pc, ea, write, a, x, y);
+                query.printMatches(limit);
+            } else {
+                query.printSummary();
+            }
+            output.println();
+            index.close();
+        }
+        output.close();
+    }
+
+    /*
+     * Instances of this class can be used by other utilities
+     */
+
+    private PrintStream output;
+    private TraceIndex index;
+    private PrintTrace tracer;
+    private int pc, ea, write, a, x, y;
+
+    public TraceQuery(PrintStream output, TraceIndex index) {
+        this.output = output;
+        this.index = index;
+        tracer = new PrintTrace(output);
+        setFilter(-1, -1, -1, -1, -1, -1);
+    }
+
+    // Set the search values, -1 matches any value
+    public void setFilter(int pc, int ea, int write, int a, int x, int y) {
+        this.pc = pc;
+        this.ea = ea;
+        this.write = write;
+        this.a = a;
+        this.x = x;
+        this.y = y;
+    }
+
+    // Print a range of instructions
+    public void printEntries(int first, int count) throws Exception {
+        for (int n = first; n < Math.min(first + count, index.count()); n++) {
+            print(n, index.entry(n));
+        }
+    }
+
+    // Print the instructions that match the search values.  Use the shortest
+    // of the occurrence lists to find candidates then check each one, or
+    // check every instruction if there are only register values.
+    public void printMatches(int limit) throws Exception {
+        int list = TraceIndex.LIST_PC, addr = pc;
+        if (ea >= 0 && (addr < 0 || index.occurrences(TraceIndex.LIST_EA, ea) < index.occurrences(list, addr))) {
+            list = TraceIndex.LIST_EA;
+            addr = ea;
+        }
+        if (write >= 0 && (addr < 0 || index.occurrences(TraceIndex.LIST_WRITE, write) < index.occurrences(list, addr))) {
+            list = TraceIndex.LIST_WRITE;
+            addr = write;
+        }
+
+        int found = 0;
+        int size = (addr >= 0) ? index.occurrences(list, addr) : index.count();
+        for (int i = 0; i < size && found < limit; i++) {
+            int n = (addr >= 0) ? index.occurrence(list, addr, i) : i;
+            Trace.Entry entry = index.entry(n);
+            if (matches(entry)) {
+                print(n, entry);
+                found += 1;
+            }
+        }
+        output.println();
+        output.println("Instructions found: " + found);
+    }
+
+    private boolean matches(Trace.Entry entry) {
+        return (pc < 0 || Data.asAddr(entry.PC) == pc) &&
+               (ea < 0 || (TraceIndex.hasAddress(entry) && entry.addr == ea)) &&
+               (write < 0 || (TraceIndex.isWrite(entry) && entry.addr == write)) &&
+               (a < 0 || Data.asBits(entry.A) == a) &&
+               (x < 0 || Data.asBits(entry.X) == x) &&
+               (y < 0 || Data.asBits(entry.Y) == y);
+    }
+
+    // Print the size of the trace and the index lists
+    public void printSummary() {
+        output.println("Instructions:        " + index.count());
+        output.println("Effective addresses: " + index.size(TraceIndex.LIST_EA));
+        output.println("Writes:              " + index.size(TraceIndex.LIST_WRITE));
+    }
+
+    private void print(int n, Trace.Entry entry) throws Exception {
+        output.print(String.format("%10d  ", n));
+        tracer.print(entry);
+    }
+}
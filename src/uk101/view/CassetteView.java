@@ -21,6 +21,7 @@ import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -31,6 +32,7 @@ import uk101.io.AudioDecoder;
 import uk101.io.AudioEncoder;
 import uk101.io.Tape;
 import uk101.machine.Configuration;
+import uk101.machine.MonitorLoader;
 import uk101.machine.TapeRecorder;
 import uk101.view.component.CassetteButton;
 import uk101.view.component.CassetteLight;
@@ -50,6 +52,7 @@ public class CassetteView  extends ViewFrame implements ActionListener, ItemList
     private DisplayText format;
     private CassetteButton record, play, stop, eject;
     private CassetteLight indicator;
+    private JCheckBox fast;
     private JFileChooser select;
     private Timer autoStop;
     private File tapeFile;
@@ -58,6 +61,7 @@ public class CassetteView  extends ViewFrame implements ActionListener, ItemList
     private int formatIn, formatOut;
     private AudioEncoder audioEncoder;
     private AudioDecoder audioDecoder;
+    private int maxLength;
 
     public CassetteView(TapeRecorder recorder, Configuration cfg) {
         super("Cassette Recorder", true);
@@ -66,6 +70,7 @@ public class CassetteView  extends ViewFrame implements ActionListener, ItemList
         recorder.setView(this);
         audioEncoder = cfg.getAudioEncoder();
         audioDecoder = cfg.getAudioDecoder();
+        maxLength = cfg.getTapeMaxLength();
 
         // Create an auto-stop timer.  Stops the cassette player if it has
         // not been used for 15 seconds.
@@ -119,6 +124,11 @@ public class CassetteView  extends ViewFrame implements ActionListener, ItemList
         open.setAlignmentX(RIGHT_ALIGNMENT);
         open.addActionListener(this);
         ip.add(open);
+        ip.add(Box.createVerticalStrut(4));
+        fast = new JCheckBox("Fast");
+        fast.setToolTipText("Load and save programs straight from and to memory");
+        fast.setAlignmentX(RIGHT_ALIGNMENT);
+        ip.add(fast);
         ip.setAlignmentY(BOTTOM_ALIGNMENT);
         bp.add(Box.createHorizontalStrut(25));
         bp.add(ip);
@@ -183,7 +193,7 @@ public class CassetteView  extends ViewFrame implements ActionListener, ItemList
     private void record() {
         if (tapeOut == null && tapeFile != null) {
             if (!tapeFile.exists()) {
-                tapeOut = Tape.getOutputStream(tapeFile, formatOut, 132, audioEncoder);
+                tapeOut = Tape.getOutputStream(tapeFile, formatOut, maxLength, audioEncoder);
             } else {
                 String[] msg = {
                     "File " + tapeFile.getPath() + " already exists.",
@@ -196,7 +206,7 @@ public class CassetteView  extends ViewFrame implements ActionListener, ItemList
                 if (JOptionPane.showInternalOptionDialog(this,
                         msg, getTitle(), JOptionPane.YES_NO_OPTION,
                         JOptionPane.WARNING_MESSAGE, null, opts, opts[0]) == JOptionPane.NO_OPTION) {
-                    tapeOut = Tape.getOutputStream(tapeFile, formatOut, 132, audioEncoder);
+                    tapeOut = Tape.getOutputStream(tapeFile, formatOut, maxLength, audioEncoder);
                 } else {
                     stop.button.doClick();
                 }
@@ -206,6 +216,10 @@ public class CassetteView  extends ViewFrame implements ActionListener, ItemList
                 recorder.setOutputTape(tapeOut);
             }
         }
+        if (tapeOut != null && fast.isSelected() && Tape.getFormat(tapeOut) == Tape.STREAM_ASCII) {
+            fastSave();
+            return;
+        }
         if (tapeOut != null)
             recorder.startTape();
     }
@@ -216,12 +230,52 @@ public class CassetteView  extends ViewFrame implements ActionListener, ItemList
             if (tapeIn != null) {
                 format.setValue(TapeMode.asMode(Tape.getFormat(tapeIn)));
                 recorder.setInputTape(tapeIn);
+                if (fast.isSelected() && fastLoad())
+                    return;
             }
         }
         if (tapeIn != null)
             recorder.startTape();
     }
 
+    // Load a machine code tape in monitor format, or an ASCII tape as a
+    // BASIC listing, without going through the ACIA.  Returns true if the
+    // tape has been read to the end and has been stopped.  Anything after a
+    // monitor go command is played as normal.
+    private boolean fastLoad() {
+        MonitorLoader loader = recorder.fastLoadMonitor();
+        if (loader != null) {
+            JOptionPane.showInternalMessageDialog(this,
+                    tapeFile.getName() + ": " + loader.report(), getTitle(),
+                    (loader.getErrors() > 0) ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+            if (loader.getGo() != -1 && loader.getErrors() == 0)
+                return false;
+        } else if (Tape.getFormat(tapeIn) == Tape.STREAM_ASCII) {
+            if (recorder.fastLoad() == -1) {
+                JOptionPane.showInternalMessageDialog(this,
+                        "BASIC must be waiting for a command to load " + tapeFile.getName() + ".",
+                        getTitle(), JOptionPane.WARNING_MESSAGE);
+            }
+        } else {
+            return false;
+        }
+        stop.button.doClick();
+        return true;
+    }
+
+    // Save the whole program as a BASIC listing without going through the
+    // ACIA, then close the tape so the file is complete.
+    private void fastSave() {
+        if (recorder.fastSave() == -1) {
+            JOptionPane.showInternalMessageDialog(this,
+                    "BASIC must be running to save to " + tapeFile.getName() + ".",
+                    getTitle(), JOptionPane.WARNING_MESSAGE);
+        }
+        recorder.setOutputTape(null);
+        tapeOut = null;
+        stop.button.doClick();
+    }
+
     private void stop() {
         recorder.stopTape();
     }
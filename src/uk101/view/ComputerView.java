@@ -47,6 +47,7 @@ public class ComputerView extends JDesktopPane implements ActionListener {
     private VideoView video;
     private KeyboardView keyboard;
     private CassetteView cassette;
+    private LatencyView latency;
 
     public ComputerView(Computer computer) {
         setLayout(null);
@@ -119,6 +120,24 @@ public class ComputerView extends JDesktopPane implements ActionListener {
         return false;       // Layout is incomplete (frame is unsized)
     }
 
+    // Show or remove the input latency window, placed below the machine
+    // control window.
+    public void showLatency(boolean show) {
+        computer.latency(show);
+        if (show) {
+            latency = new LatencyView(computer.getLatency());
+            latency.attachKeyboard(keyboard);
+            add(latency.display());
+            latency.setLocation(machine.getX(), machine.getY() + machine.getHeight() + 5);
+            latency.moveToFront();
+        } else if (latency != null) {
+            remove(latency);
+            latency.dispose();
+            latency = null;
+            repaint();
+        }
+    }
+
     // Set focus to the keyboard
     public void focusKeyboard() {
         try {
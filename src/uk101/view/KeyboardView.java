@@ -1,11 +1,15 @@
 /**
  * Compukit UK101 Simulator
  *
- * (C) Copyright Tim Baldwin 2010,2014
+ * (C) Copyright Tim Baldwin 2010,2022
  */
 package uk101.view;
 
 import java.awt.Container;
+import java.awt.Toolkit;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
@@ -15,12 +19,14 @@ import java.awt.event.MouseListener;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JPanel;
 
 import uk101.hardware.Keyboard;
 import uk101.machine.Computer;
 import uk101.machine.Configuration;
+import uk101.machine.Latency;
 import uk101.view.component.KeyboardKey;
 import uk101.view.component.KeyboardLock;
 import uk101.view.component.ViewFrame;
@@ -33,8 +39,11 @@ import uk101.view.component.ViewFrame;
  * the UK101 (so for example SHIFT-6 gives '&').  In normal mode an attempt
  * is made to use the PC characters to press the appropriate key (this ought to
  * make general typing easier but may not work correctly for games).
+ *
+ * Text on the clipboard can be pasted into the keyboard, it is typed as fast
+ * as the UK101 can read it.  Pressing any key stops the rest being typed.
  */
-public class KeyboardView extends ViewFrame implements ItemListener, MouseListener, KeyListener {
+public class KeyboardView extends ViewFrame implements ItemListener, MouseListener, KeyListener, ActionListener {
     private static final long serialVersionUID = 1L;
 
     static final String[] KB_ROW1 =
@@ -118,18 +127,23 @@ public class KeyboardView extends ViewFrame implements ItemListener, MouseListen
 
         // Shift characters for mapped keyboard processing
         if (keyboard.isUK()) {
-            shiftChars = UK_SHIFT_CHARS;
+            shiftChars = Keyboard.UK_SHIFT_CHARS;
             lfChar = Keyboard.KEY_UPARROW;
         } else {
-            shiftChars = US_SHIFT_CHARS;
+            shiftChars = Keyboard.US_SHIFT_CHARS;
             lfChar = Keyboard.KEY_LINEFEED;
         }
 
-        // Add the keyboard game mode selector
+        // Add the paste button and keyboard game mode selector
+        JButton paste = new JButton("Paste");
+        paste.setAlignmentY(BOTTOM_ALIGNMENT);
+        paste.addActionListener(this);
         JCheckBox game = new JCheckBox("Game mode", gameMode);
         game.setAlignmentY(BOTTOM_ALIGNMENT);
         game.addItemListener(this);
         row5.add(Box.createHorizontalGlue());
+        row5.add(paste);
+        row5.add(Box.createHorizontalStrut(5));
         row5.add(game);
         row5.add(Box.createHorizontalStrut(5));
 
@@ -165,6 +179,8 @@ public class KeyboardView extends ViewFrame implements ItemListener, MouseListen
      */
     public void mousePressed(MouseEvent e) {
         KeyboardKey key = (KeyboardKey)e.getSource();
+        keyboard.cancelTyping();
+        probeKey();
         if (key.getCode() != Keyboard.KEY_RESET) {
             if (!gameMode && e.isShiftDown()) {
                 keyboard.pressKey(Keyboard.KEY_LSHIFT);
@@ -181,6 +197,7 @@ public class KeyboardView extends ViewFrame implements ItemListener, MouseListen
 
     public void mouseReleased(MouseEvent e) {
         KeyboardKey key = (KeyboardKey)e.getSource();
+        probeKey();
         if (key.getCode() != Keyboard.KEY_RESET) {
             keyboard.releaseKey(key.getCode());
             if (!gameMode && e.isShiftDown()) {
@@ -221,6 +238,19 @@ public class KeyboardView extends ViewFrame implements ItemListener, MouseListen
         }
     }
 
+    /*
+     * ActionListener is used for the paste button, to type the text on the
+     * clipboard.
+     */
+    public void actionPerformed(ActionEvent e) {
+        try {
+            Object text = Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor);
+            keyboard.type((String)text);
+        } catch (Exception x) {
+            System.err.println(x);
+        }
+    }
+
     /*
      * KeyListener is used to map the real keyboard.
      *
@@ -235,15 +265,14 @@ public class KeyboardView extends ViewFrame implements ItemListener, MouseListen
      *       the square-brackets and the backslash (on a US keyboard)) will map to
      *       the LINEFEED key, and the Insert key will map to REPEAT.
      */
-    private static final String UK_SHIFT_CHARS = "!\"#$%&'()*=@[\\+]<>?_";
-    private static final String US_SHIFT_CHARS = "!\"#$%&'()*=@[\\+]<>?_^";
-
     private int mappedKey = 0, mappedShift = 0;
     private String shiftChars;
     private int lfChar;
 
     public void keyPressed(KeyEvent e) {
         e.consume();
+        keyboard.cancelTyping();
+        probeKey();
         int key = mapKey(e);
         if (key != 0) {
             keyboard.pressKey(key);
@@ -254,6 +283,7 @@ public class KeyboardView extends ViewFrame implements ItemListener, MouseListen
 
     public void keyReleased(KeyEvent e) {
         e.consume();
+        probeKey();
         releaseMapped();
         int key = mapKey(e);
         if (key != 0) {
@@ -313,6 +343,14 @@ public class KeyboardView extends ViewFrame implements ItemListener, MouseListen
         return key;
     }
 
+    // Start timing a key event if input latency is being measured
+    private void probeKey() {
+        Latency probe = computer.getLatency();
+        if (probe != null) {
+            probe.keyEvent();
+        }
+    }
+
     private void pressMapped(int key) {
         releaseMapped();
         if (shiftChars.indexOf(key) != -1) {
@@ -0,0 +1,96 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.view;
+
+import java.awt.BorderLayout;
+import java.awt.Container;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+import uk101.machine.Latency;
+import uk101.view.component.ViewFrame;
+
+/**
+ * Debug window showing the input latency histograms.  The results are
+ * updated every second while the window is shown.
+ */
+public class LatencyView extends ViewFrame implements ActionListener {
+    private static final long serialVersionUID = 1L;
+
+    static final String LATENCY_RESET = "Reset";
+    static final String LATENCY_EXPORT = "Export";
+
+    private Latency latency;
+    private JTextArea results;
+    private JLabel status;
+    private Timer updateTimer;
+
+    public LatencyView(Latency latency) {
+        super("Input Latency", true);
+        this.latency = latency;
+
+        results = new JTextArea(latency.report());
+        results.setEditable(false);
+        results.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        results.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+        JPanel bp = new JPanel();
+        bp.setLayout(new BoxLayout(bp, BoxLayout.X_AXIS));
+        bp.setBorder(BorderFactory.createEmptyBorder(0, 5, 5, 5));
+        JButton reset = new JButton(LATENCY_RESET);
+        JButton export = new JButton(LATENCY_EXPORT);
+        reset.addActionListener(this);
+        export.addActionListener(this);
+        status = new JLabel(" ");
+        bp.add(status);
+        bp.add(Box.createHorizontalGlue());
+        bp.add(reset);
+        bp.add(Box.createHorizontalStrut(5));
+        bp.add(export);
+
+        Container content = getContentPane();
+        content.add(results, BorderLayout.CENTER);
+        content.add(bp, BorderLayout.SOUTH);
+
+        updateTimer = new Timer(1000, this);
+        updateTimer.setRepeats(true);
+        updateTimer.start();
+    }
+
+    /*
+     * Stop updating when the window is removed
+     */
+    public void dispose() {
+        updateTimer.stop();
+        super.dispose();
+    }
+
+    /*
+     * Timer and button actions
+     */
+    public void actionPerformed(ActionEvent e) {
+        if (e.getSource() == updateTimer) {
+            results.setText(latency.report());
+        } else if (e.getActionCommand().equals(LATENCY_RESET)) {
+            latency.reset();
+            results.setText(latency.report());
+            status.setText(" ");
+        } else if (e.getActionCommand().equals(LATENCY_EXPORT)) {
+            String filename = latency.write();
+            status.setText((filename != null) ? filename : "Export failed");
+        }
+    }
+}
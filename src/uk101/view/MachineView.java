@@ -1,7 +1,7 @@
 /**
  * Compukit UK101 Simulator
  *
- * (C) Copyright Tim Baldwin 2010,2015
+ * (C) Copyright Tim Baldwin 2010,2022
  */
 package uk101.view;
 
@@ -36,11 +36,15 @@ public class MachineView extends ViewFrame implements ActionListener, ChangeList
 
     static final String MACHINE_DUMP = "Dump";
     static final String MACHINE_TRACE = "Trace";
+    static final String MACHINE_PROFILE = "Profile";
+    static final String MACHINE_RECORD = "Record";
+    static final String MACHINE_LATENCY = "Latency";
     static final String MACHINE_RESET = "Reset";
     static final String MACHINE_NMI = " NMI ";
     static final String MACHINE_IRQ = " IRQ ";
 
     private Computer computer;
+    private ComputerView computerView;
 
     private DisplayText speed, baud;
     private SpeedSelector cpuClock;
@@ -49,6 +53,7 @@ public class MachineView extends ViewFrame implements ActionListener, ChangeList
     public MachineView(Computer computer, ComputerView computerView) {
         super("Machine", true);
         this.computer = computer;
+        this.computerView = computerView;
 
         // Timer to update CPU actual speed
         speedTimer = new Timer(2000, this);
@@ -89,12 +94,15 @@ public class MachineView extends ViewFrame implements ActionListener, ChangeList
         sp.add(cpuClock);
 
         // Debug panel
-        AbstractButton[] db = new AbstractButton[5];
+        AbstractButton[] db = new AbstractButton[8];
         db[0] = new JButton(MACHINE_DUMP);
         db[1] = new JToggleButton(MACHINE_TRACE);
-        db[2] = new JButton(MACHINE_RESET);
-        db[3] = new JButton(MACHINE_NMI);
-        db[4] = new JButton(MACHINE_IRQ);
+        db[2] = new JToggleButton(MACHINE_PROFILE);
+        db[3] = new JToggleButton(MACHINE_RECORD);
+        db[4] = new JToggleButton(MACHINE_LATENCY);
+        db[5] = new JButton(MACHINE_RESET);
+        db[6] = new JButton(MACHINE_NMI);
+        db[7] = new JButton(MACHINE_IRQ);
 
         JPanel dp = new DebugPanel(db, this);
         dp.setBorder(BorderFactory.createTitledBorder("Debug"));
@@ -123,6 +131,12 @@ public class MachineView extends ViewFrame implements ActionListener, ChangeList
             computer.dump();
         } else if (e.getActionCommand().equals(MACHINE_TRACE)) {
             computer.trace(((JToggleButton)e.getSource()).isSelected());
+        } else if (e.getActionCommand().equals(MACHINE_PROFILE)) {
+            computer.profile(((JToggleButton)e.getSource()).isSelected());
+        } else if (e.getActionCommand().equals(MACHINE_RECORD)) {
+            computer.record(((JToggleButton)e.getSource()).isSelected());
+        } else if (e.getActionCommand().equals(MACHINE_LATENCY)) {
+            computerView.showLatency(((JToggleButton)e.getSource()).isSelected());
         } else if (e.getActionCommand().equals(MACHINE_RESET)) {
             computer.cpu.signalReset();
         } else if (e.getActionCommand().equals(MACHINE_NMI)) {
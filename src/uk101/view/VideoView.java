@@ -1,7 +1,7 @@
 /**
  * Compukit UK101 Simulator
  *
- * (C) Copyright Tim Baldwin 2010,2013
+ * (C) Copyright Tim Baldwin 2010,2022
  */
 package uk101.view;
 
@@ -13,14 +13,17 @@ import javax.swing.BorderFactory;
 import javax.swing.JPanel;
 
 import uk101.hardware.Video;
+import uk101.hardware.bus.VideoBus;
+import uk101.machine.Computer;
 import uk101.machine.Configuration;
+import uk101.view.component.GlyphAtlas;
 import uk101.view.component.VideoScreen;
 import uk101.view.component.ViewFrame;
 
 /**
  * A visual representation of the video display output.
  */
-public class VideoView extends ViewFrame {
+public class VideoView extends ViewFrame implements VideoBus {
     private static final long serialVersionUID = 1L;
 
     private VideoScreen screen;
@@ -43,10 +46,16 @@ public class VideoView extends ViewFrame {
         sstart = cfg.getScreenOffset();
         int vscale = (vrows > 16) ? 1 : 2;
         int hscale = (vcols > 32) ? 1 : 2;
-        int ssize = (cfg.getScreenSize() < 2) ? 1 : 2;
-        Color colour = getScreenColour(cfg.getScreenColour());
-        screen = new VideoScreen(video, srows, scols, hscale, vscale, ssize, colour);
+        boolean raster = isRasterRender(cfg.getScreenRender());
+        double ssize = cfg.getScreenSize();
+        if (!raster)
+            ssize = (ssize < 2) ? 1 : 2;
+        Color colour = GlyphAtlas.getColour(cfg.getScreenColour());
+        screen = new VideoScreen(video, srows, scols, hscale, vscale, ssize, colour, raster);
         screen.setUpdateMode(isSyncUpdate(cfg.getScreenUpdate()));
+        if (isFrameUpdate(cfg.getScreenUpdate()))
+            screen.setRefreshRate(cfg.getScreenRefresh());
+        screen.setShowStatistics(Computer.debug);
 
         // Surround the screen by a small border (about half a character cell wide).
         Dimension cell = screen.getCellSize();
@@ -61,21 +70,20 @@ public class VideoView extends ViewFrame {
         content.add(tv);
     }
 
-    // Map configuration screen colour
-    private Color getScreenColour(String name) {
-        Color colour = VideoScreen.SCREEN_WHITE;
-        if (name.equals(Configuration.GREEN))
-            colour = VideoScreen.SCREEN_GREEN;
-        else if (name.equals(Configuration.AMBER))
-            colour = VideoScreen.SCREEN_AMBER;
-        return colour;
-    }
-    
     // Map configuration screen update mode
     private boolean isSyncUpdate(String name) {
         return name.equals(Configuration.SYNC);
     }
 
+    private boolean isFrameUpdate(String name) {
+        return name.equals(Configuration.FRAME);
+    }
+
+    // Map configuration screen render mode
+    private boolean isRasterRender(String name) {
+        return name.equals(Configuration.RASTER);
+    }
+
     /*
      * Called when the video memory is updated
      */
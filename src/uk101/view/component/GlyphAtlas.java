@@ -0,0 +1,145 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.view.component;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import uk101.hardware.ROM;
+import uk101.machine.Configuration;
+
+/**
+ * A single image holding all 256 characters of a character set, drawn in
+ * one colour at one size.  Each character is only drawn into the image the
+ * first time it is used.
+ *
+ * Atlases are shared by all the screens in the JVM that use the same
+ * character generator contents, colour and size.
+ */
+public class GlyphAtlas {
+
+    private static Map<Key, GlyphAtlas> atlases = new HashMap<Key, GlyphAtlas>();
+
+    /*
+     * Return the shared atlas for a character set, colour and character
+     * size on screen.
+     */
+    public static GlyphAtlas getAtlas(ROM chargen, int cw, int ch, Color colour, int sw, int sh) {
+        byte[] bitmaps = getBitmaps(chargen, ch);
+        Key key = new Key(bitmaps, colour.getRGB() & 0xFFFFFF, sw, sh);
+        synchronized (atlases) {
+            GlyphAtlas atlas = atlases.get(key);
+            if (atlas == null) {
+                atlas = new GlyphAtlas(key, cw, ch);
+                atlases.put(key, atlas);
+            }
+            return atlas;
+        }
+    }
+
+    // Atlases are identified by the character bitmaps, colour and size
+    static class Key {
+        byte[] bitmaps;
+        int rgb, sw, sh;
+        int hash;
+
+        Key(byte[] bitmaps, int rgb, int sw, int sh) {
+            this.bitmaps = bitmaps;
+            this.rgb = rgb;
+            this.sw = sw;
+            this.sh = sh;
+            hash = ((Arrays.hashCode(bitmaps)*31 + rgb)*31 + sw)*31 + sh;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key k = (Key)o;
+                return rgb == k.rgb && sw == k.sw && sh == k.sh && Arrays.equals(bitmaps, k.bitmaps);
+            }
+            return false;
+        }
+    }
+
+    private Key key;
+    private int cw, ch;
+    private BufferedImage image;
+    private boolean[] drawn;
+
+    private GlyphAtlas(Key key, int cw, int ch) {
+        this.key = key;
+        this.cw = cw;
+        this.ch = ch;
+        image = new BufferedImage(16*key.sw, 16*key.sh, BufferedImage.TYPE_INT_RGB);
+        drawn = new boolean[256];
+    }
+
+    /*
+     * Draw a character at a position
+     */
+    public void drawGlyph(Graphics g, int c, int x, int y) {
+        int sx = (c & 0xF)*key.sw, sy = (c >> 4)*key.sh;
+        makeGlyph(c, sx, sy);
+        g.drawImage(image, x, y, x+key.sw, y+key.sh, sx, sy, sx+key.sw, sy+key.sh, null);
+    }
+
+    // Draw a character into the atlas image.  The image raster is only
+    // updated through its methods so Java can still keep an accelerated copy.
+    private synchronized void makeGlyph(int c, int sx, int sy) {
+        if (!drawn[c]) {
+            int sw = key.sw, sh = key.sh;
+            int[] pixels = new int[sw*sh];
+            drawPixels(key.bitmaps, c, cw, ch, sw, sh, pixels, 0, sw, key.rgb);
+            image.getRaster().setDataElements(sx, sy, sw, sh, pixels);
+            drawn[c] = true;
+        }
+    }
+
+    /*
+     * Character drawing shared by everything that draws the screen without
+     * an atlas, such as the raster mode frame buffer and screen captures.
+     */
+
+    // Copy the character generator bitmaps, ch bytes for each character
+    public static byte[] getBitmaps(ROM chargen, int ch) {
+        byte[] bitmaps = new byte[256*ch];
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = chargen.readByte(i);
+        }
+        return bitmaps;
+    }
+
+    // Draw a character into an array of pixels starting at offset p, by
+    // scaling each pixel of the cw by ch character bitmap to fill a sw by sh
+    // cell.  Pixels that are set are given the foreground value and the rest
+    // are zero.
+    public static void drawPixels(byte[] bitmaps, int c, int cw, int ch, int sw, int sh, int[] pixels, int p, int stride, int fg) {
+        for (int y = 0; y < sh; y++, p += stride) {
+            int bits = bitmaps[c*ch + ((sh == ch) ? y : y*ch/sh)];
+            for (int x = 0; x < sw; x++) {
+                int bx = (sw == cw) ? x : x*cw/sw;
+                pixels[p+x] = ((bits << bx) & 0x80) != 0 ? fg : 0;
+            }
+        }
+    }
+
+    // Map the configured screen colour to the colour characters are drawn in
+    public static Color getColour(String name) {
+        Color colour = VideoScreen.SCREEN_WHITE;
+        if (name.equals(Configuration.GREEN))
+            colour = VideoScreen.SCREEN_GREEN;
+        else if (name.equals(Configuration.AMBER))
+            colour = VideoScreen.SCREEN_AMBER;
+        return colour;
+    }
+}
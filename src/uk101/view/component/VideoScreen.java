@@ -1,27 +1,43 @@
 /**
  * Compukit UK101 Simulator
  *
- * (C) Copyright Tim Baldwin 2010,2014
+ * (C) Copyright Tim Baldwin 2010,2022
  */
 package uk101.view.component;
 
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Image;
+import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
-import java.awt.image.IndexColorModel;
-import java.awt.image.MemoryImageSource;
+import java.awt.image.DataBufferInt;
 import java.util.Arrays;
 
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 import uk101.hardware.ROM;
 import uk101.hardware.Video;
+import uk101.machine.Latency;
 
 /**
  * Displays the video output that would appear on a standard TV screen.
+ *
+ * In raster mode the screen is held as a single frame buffer image, with
+ * one pixel for each character generator pixel.  Character bitmaps are
+ * written directly into the frame buffer as cells change, and the frame
+ * buffer is scaled to the window as it is drawn, so any scale can be used.
+ *
+ * Scrolling is detected as it happens.  A monitor scrolls the screen by
+ * copying each row in turn to the row above.  Once a whole row has been
+ * seen to be rewritten with the contents of the row below, the changes to
+ * the following rows are held back and each row is shifted in a single
+ * operation rather than being painted a character at a time.
  */
 public class VideoScreen extends JPanel {
     private static final long serialVersionUID = 1L;
@@ -31,31 +47,57 @@ public class VideoScreen extends JPanel {
     public static final Color SCREEN_GREEN = Color.GREEN;
     public static final Color SCREEN_AMBER = Color.ORANGE;
 
+    private Video video;
     private int rows, cols;
 
-    private Image charset[];            // Character set images
+    private GlyphAtlas charset;         // Character set images
     private byte[][] cells;             // Video cells
 
     private int cw, ch;                 // Character width and height
     private int sw, sh;                 // Scaled character width and height on screen
+    private double cellw, cellh;        // Exact character size on screen
+    private int width, height;          // Screen size
+
+    private BufferedImage frame;        // Raster mode frame buffer
+    private int[] raster;               // Frame buffer pixels
+    private byte[] glyphs;              // Character generator bitmaps
+    private int foreground;             // Character colour
     
     private boolean syncPaint;          // Window update style
 
+    private long[] dirty;               // Changed cells, one bit per column
+    private Timer refresh;              // Frame refresh timer
+    private int period;                 // Frame period in milliseconds
+    private int skip;                   // Frames to skip
+
+    private boolean scrollDetect;       // Look for rows being scrolled
+    private int scrollRow, scrollCol;   // Next cell expected in a scroll
+    private boolean scrolling;          // A row has been seen to scroll
+    private Timer scrollFlush;          // Completes an unfinished scroll
+
+    // Statistics
+    private long frames, framesSkipped, cellsPainted, rowsShifted;
+
     /*
      * Video size and character set can be found from the video hardware
      * component.  The screen displays an array of character images addressed
      * as a set of character cells in a row,column matrix.  This represents
-     * just the visible portion of the screen.
+     * just the visible portion of the screen.  The scale can be fractional
+     * in raster mode, otherwise it is rounded to a whole number.
      */
-    public VideoScreen(Video video, int rows, int cols, int hscan, int vscan, int scale, Color colour) {
+    public VideoScreen(Video video, int rows, int cols, int hscan, int vscan, double scale, Color colour, boolean raster) {
         setOpaque(true);
         setBackground(SCREEN_BLACK);
 
         // Details of the displayed video screen
+        this.video = video;
         this.rows = rows;
         this.cols = cols;
         cw = video.charWidth;  ch = video.charHeight;
-        sw = cw*hscan*scale;  sh = ch*vscan*scale;
+        if (!raster)
+            scale = Math.max(1, Math.round(scale));
+        cellw = cw*hscan*scale;  cellh = ch*vscan*scale;
+        sw = (int)Math.round(cellw);  sh = (int)Math.round(cellh);
 
         // Internal copy of the current character cells.  Ensure this is filled
         // with spaces to begin with, so we don't see garbage on the screen.
@@ -65,13 +107,35 @@ public class VideoScreen extends JPanel {
             Arrays.fill(cells[i], (byte)' ');
         }
 
+        // Each row of changed cells is a bitmap in a single long.
+        dirty = new long[rows];
+
+        // If a scroll stops part way through a row, show the changes anyway
+        // after a short delay.
+        scrollDetect = true;
+        scrollRow = -1;
+        scrollFlush = new Timer(50, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                synchronized (VideoScreen.this) {
+                    flushScroll();
+                }
+            }
+        });
+        scrollFlush.setRepeats(false);
+
         // Calculate the pixel size of the display area.
-        Dimension size = new Dimension(cols*sw, rows*sh);
+        width = (int)Math.round(cols*cellw);
+        height = (int)Math.round(rows*cellh);
+        Dimension size = new Dimension(width, height);
         setPreferredSize(size);
         setMaximumSize(size);
 
-        // Build the character set images
-        makeCharacterSet(video.charSet, colour);
+        // Build the frame buffer or the character set images
+        if (raster) {
+            makeFrameBuffer(video.charSet, colour);
+        } else {
+            makeCharacterSet(video.charSet, colour);
+        }
     }
 
     /*
@@ -84,22 +148,52 @@ public class VideoScreen extends JPanel {
         int maxRow = rows-1, maxCol = cols-1;
         Rectangle clip = g.getClipBounds();
         if (clip != null) {
-            minRow = (clip.y)/sh;  maxRow = Math.min((clip.y+clip.height)/sh, maxRow);
-            minCol = (clip.x)/sw;  maxCol = Math.min((clip.x+clip.width)/sw, maxCol);
+            minRow = (int)(clip.y/cellh);  maxRow = Math.min((int)((clip.y+clip.height)/cellh), maxRow);
+            minCol = (int)(clip.x/cellw);  maxCol = Math.min((int)((clip.x+clip.width)/cellw), maxCol);
         }
 
-        synchronized (this) {
+        if (frame != null) {
+            paintFrame(g);
+        } else synchronized (this) {
             int y = minRow*sh;
             for (int r = minRow; r <= maxRow; r++) {
                 int x = minCol*sw;
                 byte[] rcells = cells[r];
                 for (int c = minCol; c <= maxCol; c++) {
-                    g.drawImage(charset[rcells[c] & 0xFF], x, y, this);
+                    charset.drawGlyph(g, rcells[c] & 0xFF, x, y);
                     x += sw;
                 }
                 y += sh;
             }
         }
+        frames += 1;
+        cellsPainted += (long)(maxRow-minRow+1)*(maxCol-minCol+1);
+        painted();
+    }
+
+    // Tell any latency probe the screen has been drawn
+    private void painted() {
+        Latency probe = video.getProbe();
+        if (probe != null) {
+            probe.painted();
+        }
+    }
+
+    // Draw the frame buffer scaled to the screen size, only the part inside
+    // the clip area is actually drawn.
+    private void paintFrame(Graphics g) {
+        Graphics2D g2 = (Graphics2D)g;
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        synchronized (this) {
+            g2.drawImage(frame, 0, 0, width, height, null);
+        }
+    }
+
+    // Screen area covering a block of cells
+    private Rectangle cellBounds(int minRow, int minCol, int maxRow, int maxCol) {
+        int x = (int)Math.floor(minCol*cellw), y = (int)Math.floor(minRow*cellh);
+        int w = (int)Math.ceil((maxCol+1)*cellw) - x, h = (int)Math.ceil((maxRow+1)*cellh) - y;
+        return new Rectangle(x, y, w, h);
     }
     
     /*
@@ -109,12 +203,204 @@ public class VideoScreen extends JPanel {
         syncPaint = sync;
     }
 
+    /*
+     * Set frame update mode.  Rather than updating the window as each
+     * character changes, changed cells are marked in the dirty bitmap and
+     * all the changes are painted together at a fixed refresh rate.
+     * A rate of zero returns to updating each character.
+     */
+    public synchronized void setRefreshRate(int hz) {
+        if (refresh != null) {
+            refresh.stop();
+            refresh = null;
+        }
+        if (hz > 0) {
+            period = 1000/hz;
+            refresh = new Timer(period, new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    refreshFrame();
+                }
+            });
+            refresh.setCoalesce(true);
+            if (isDisplayable())
+                refresh.start();
+        }
+        repaint();
+    }
+
+    public void addNotify() {
+        super.addNotify();
+        if (refresh != null)
+            refresh.start();
+    }
+
+    public void removeNotify() {
+        if (refresh != null)
+            refresh.stop();
+        super.removeNotify();
+    }
+
+    // Paint all the changed cells, called on the Swing event dispatch thread.
+    // If painting takes longer than the frame period skip some frames so the
+    // display does not fall behind, the changes just build up until the next
+    // painted frame.
+    void refreshFrame() {
+        if (skip > 0) {
+            skip -= 1;
+            framesSkipped += 1;
+            return;
+        }
+
+        // Find the area covering all the changed cells
+        int minRow = rows, maxRow = -1;
+        long cols = 0;
+        synchronized (this) {
+            for (int r = 0; r < rows; r++) {
+                if (dirty[r] != 0) {
+                    minRow = Math.min(minRow, r);
+                    maxRow = r;
+                    cols |= dirty[r];
+                    dirty[r] = 0;
+                }
+            }
+        }
+
+        if (maxRow >= 0) {
+            int minCol = Long.numberOfTrailingZeros(cols);
+            int maxCol = 63 - Long.numberOfLeadingZeros(cols);
+            long start = System.nanoTime();
+            paintImmediately(cellBounds(minRow, minCol, maxRow, maxCol));
+            int elapsed = (int)((System.nanoTime() - start)/1000000);
+            skip = elapsed/period;
+        }
+    }
+
+    /*
+     * Return the display statistics
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    public long getCellsPainted() {
+        return cellsPainted;
+    }
+
+    public long getRowsShifted() {
+        return rowsShifted;
+    }
+
+    // Show the statistics as the tool tip, for debugging
+    public void setShowStatistics(boolean show) {
+        setToolTipText(show ? "" : null);
+    }
+
+    public String getToolTipText(MouseEvent e) {
+        return "Frames: " + frames + ", skipped: " + framesSkipped + ", cells: " + cellsPainted + ", rows shifted: " + rowsShifted;
+    }
+
+    /*
+     * Turn scroll detection on or off, it is on by default.
+     */
+    public synchronized void setScrollDetection(boolean detect) {
+        flushScroll();
+        scrollDetect = detect;
+    }
+
     /*
      * Indicate a screen character needs updating
      */
     public synchronized void screenUpdate(int row, int col, byte b) {
+        // Carry on with a scroll if this is the next cell and it matches the
+        // cell below.  Until a whole row has been copied this may not be a
+        // scroll, so the cells are still shown as they change.  After that
+        // each row is shifted once it has all been copied.
+        if (row == scrollRow && col == scrollCol && cells[row+1][col] == b) {
+            if (!scrolling)
+                updateCell(row, col, b);
+            scrollCol += 1;
+            if (scrollCol == cols) {
+                if (scrolling)
+                    shiftRow(row);
+                scrolling = true;
+                scrollRow = (row+2 < rows) ? row+1 : -1;
+                scrollCol = 0;
+                scrollFlush.restart();
+            }
+            return;
+        }
+        flushScroll();
+
+        // A scroll may start when the first cell of a row is given the
+        // value of the cell below.
+        if (scrollDetect && col == 0 && row+1 < rows && cells[row+1][0] == b) {
+            scrollRow = row;
+            scrollCol = 1;
+        }
+
+        updateCell(row, col, b);
+    }
+
+    // Apply any cells held back by a scroll that did not complete a row
+    private void flushScroll() {
+        int row = scrollRow, count = scrolling ? scrollCol : 0;
+        scrollRow = -1;
+        scrollCol = 0;
+        scrolling = false;
+        for (int c = 0; c < count; c++) {
+            updateCell(row, c, cells[row+1][c]);
+        }
+    }
+
+    // Shift a row by copying the row below, both the cells and what is
+    // already on the screen.
+    private void shiftRow(int row) {
+        System.arraycopy(cells[row+1], 0, cells[row], 0, cols);
+        if (frame != null) {
+            int size = cols*cw*ch;
+            System.arraycopy(raster, (row+1)*size, raster, row*size, size);
+        }
+        rowsShifted += 1;
+
+        Rectangle area = cellBounds(row, 0, row, cols-1);
+        if (refresh != null) {
+            dirty[row] = -1L >>> (64-cols);
+        } else if (syncPaint) {
+            Graphics g = getGraphics();
+            if (g != null) {
+                if (frame != null) {
+                    g.clipRect(area.x, area.y, area.width, area.height);
+                    paintFrame(g);
+                } else {
+                    g.copyArea(area.x, area.y+sh, area.width, sh, 0, -sh);
+                }
+                g.dispose();
+                painted();
+            } else {
+                repaint(area);
+            }
+        } else {
+            repaint(area);
+        }
+    }
+
+    // Update a single cell
+    private void updateCell(int row, int col, byte b) {
         if (cells[row][col] != b) {
             cells[row][col] = b;
+            if (frame != null)
+                drawGlyph(row, col, b);
+
+            // In frame mode just remember the change, the next frame will
+            // paint it.
+            if (refresh != null) {
+                dirty[row] |= 1L << col;
+                return;
+            }
             
             // Support two types of update: asynchronous and synchronous.
             // async - this is the proper swing update method, we just invalidate
@@ -128,13 +414,20 @@ public class VideoScreen extends JPanel {
             if (syncPaint) {
                 Graphics g = getGraphics();
                 if (g != null) {
-                    g.drawImage(charset[b & 0xFF], col*sw, row*sh, this);
+                    if (frame != null) {
+                        Rectangle cell = cellBounds(row, col, row, col);
+                        g.clipRect(cell.x, cell.y, cell.width, cell.height);
+                        paintFrame(g);
+                    } else {
+                        charset.drawGlyph(g, b & 0xFF, col*sw, row*sh);
+                    }
                     g.dispose();
+                    painted();
                 } else {    
-                    repaint(col*sw, row*sh, sw, sh);
+                    repaint(cellBounds(row, col, row, col));
                 }
             } else {
-                repaint(col*sw, row*sh, sw, sh);
+                repaint(cellBounds(row, col, row, col));
             }    
         }
     }
@@ -146,37 +439,30 @@ public class VideoScreen extends JPanel {
         return new Dimension(sw, sh);
     }
     
-    // Builds a set of Images, one per character based on the information from
-    // the character generator ROM.
-    private void makeCharacterSet(ROM chargen, Color colour) {
-        // The character generator ROM contains 8 bytes per character, with each
-        // byte being 1-bit per pixel for each character row. To build Java Image
-        // objects we need the pixel data as 1 byte per pixel.
-        byte[] charmap = new byte[256 * cw * ch];
-        for (int b = 0, i = 0; i < 256*ch; i++) {
-            byte pixels = chargen.readByte(i);
-            for (int j = 7; j >= 0; j--) {
-                charmap[b++] = (byte)((pixels>>j) & 1);
+    // Builds the raster mode frame buffer, keeping a copy of the character
+    // generator bitmaps to draw into it.
+    private void makeFrameBuffer(ROM chargen, Color colour) {
+        glyphs = GlyphAtlas.getBitmaps(chargen, ch);
+        foreground = colour.getRGB() & 0xFFFFFF;
+
+        frame = new BufferedImage(cols*cw, rows*ch, BufferedImage.TYPE_INT_RGB);
+        raster = ((DataBufferInt)frame.getRaster().getDataBuffer()).getData();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                drawGlyph(r, c, cells[r][c]);
             }
         }
-        
-        // Now build the images and colour mapping
-        byte[] r = new byte[] { 0, (byte)colour.getRed() };
-        byte[] g = new byte[] { 0, (byte)colour.getGreen() };
-        byte[] b = new byte[] { 0, (byte)colour.getBlue() };
-        IndexColorModel colours = new IndexColorModel(1, 2, r, g, b);
-
-        charset = new Image[256];
-        int offset = 0;
-        for (int c = 0; c < 256; c++) {
-            // Create image from the bitmap data
-            Image img = createImage(new MemoryImageSource(cw, ch, colours, charmap, offset, cw));
-            offset += cw * ch;
-            // Save a scaled image to speed up drawing
-            charset[c] = new BufferedImage(sw, sh, BufferedImage.TYPE_INT_RGB);
-            Graphics gc = charset[c].getGraphics();
-            gc.drawImage(img, 0, 0, sw, sh, null);
-            gc.dispose();
-        }
+    }
+
+    // Write a character bitmap into the frame buffer pixels
+    private void drawGlyph(int row, int col, byte b) {
+        int stride = cols*cw;
+        GlyphAtlas.drawPixels(glyphs, b & 0xFF, cw, ch, cw, ch, raster, row*ch*stride + col*cw, stride, foreground);
+    }
+
+    // Use the shared images of each character, these are only built as
+    // characters are drawn.
+    private void makeCharacterSet(ROM chargen, Color colour) {
+        charset = GlyphAtlas.getAtlas(chargen, cw, ch, colour, sw, sh);
     }
 }
@@ -83,6 +83,18 @@ public class TestUK101Streams extends TestCase {
         assertTrue(Arrays.equals(b2, makeBytes(lines1)));
     }
 
+    // Every byte can be read without waiting
+    public void testInputStreamAvailable() throws Exception {
+        UK101InputStream in = new UK101InputStream(new StringReader(text1));
+        byte[] b = makeBytes(lines1);
+        for (int i = 0; i < b.length; i++) {
+            assertTrue("byte " + i, in.available() > 0);
+            assertEquals("byte " + i, b[i] & 0xFF, in.read());
+        }
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
     // Make a sequence of output bytes
     byte[] makeBytes(String[] text) throws IOException {
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
@@ -0,0 +1,216 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.hardware;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import uk101.hardware.bus.IOBus;
+import uk101.io.Tape;
+import uk101.machine.Computer;
+import uk101.machine.Configuration;
+import uk101.utils.Args;
+
+/**
+ * Utility program to compare the speed of moving characters through the
+ * ACIA in the locked and ring modes.  There are three tests:
+ *
+ *    receive:  a thread polls the ACIA and reads characters from a device
+ *              as fast as it can, as the processor would
+ *    transmit: a thread writes characters to a device as fast as the ACIA
+ *              will take them
+ *    tape:     a machine running as fast as possible loads the tape using
+ *              the monitor, timed from the first character read from the
+ *              tape to the processor taking the last one it reads
+ *
+ * Usage:
+ *    AciaBenchmark [options] [tapefile]
+ *
+ * where:
+ *    tapefile: a monitor format tape, defaults to samples/tapes/exmon.tape
+ *
+ * options:
+ *    -bytes count: number of characters for the receive and transmit tests, defaults to 1000000
+ *    -repeat count: number of times to run each test, defaults to 3
+ */
+public class AciaBenchmark {
+
+    static final String[] MODES = { Configuration.LOCKED, Configuration.RING };
+
+    // Time with no characters read that ends the tape test
+    static final long SETTLE = 1000000000L;
+
+    public static void main(String[] args) throws Exception {
+        // Handle parameters
+        Args.Map options = Args.optionMap();
+        options.put("bytes", "count (characters for each test)");
+        options.put("repeat", "count (times to run each test)");
+        Args parms = new Args(AciaBenchmark.class, "[tapefile]", args, options);
+        File tapeFile = parms.getInputFile(1);
+        int bytes = parms.getInteger("bytes", 1000000);
+        int repeat = parms.getInteger("repeat", 3);
+        if (tapeFile == null) {
+            tapeFile = new File("samples/tapes/exmon.tape");
+        }
+
+        // Check parameters
+        if (!tapeFile.exists() || bytes < 1 || repeat < 1) {
+            parms.usage();
+        }
+
+        System.out.println(String.format("%-8s %-7s %10s %10s %12s", "test", "mode", "bytes", "time", "bytes/s"));
+        for (int r = 0; r < repeat; r++) {
+            for (String mode : MODES) {
+                receive(mode, bytes);
+            }
+            for (String mode : MODES) {
+                transmit(mode, bytes);
+            }
+            for (String mode : MODES) {
+                tape(mode, tapeFile);
+            }
+            System.out.println();
+        }
+
+        // The machines and ACIAs leave their threads running
+        System.exit(0);
+    }
+
+    private static void report(String test, String mode, long count, long nanos) {
+        nanos = Math.max(nanos, 1);
+        System.out.println(String.format("%-8s %-7s %10d %8.1fms %12d",
+                test, mode, count, nanos/1e6, count*1000000000L/nanos));
+    }
+
+    // In locked mode a character written before the worker thread is
+    // waiting would not be seen, so give it time to start.
+    private static void pause() {
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /*
+     * Read characters from a device that always has one ready
+     */
+    private static void receive(String mode, int bytes) {
+        ACIA6850 acia = new ACIA6850(300, Thread.NORM_PRIORITY, mode.equals(Configuration.RING));
+        acia.setRxBus(new IOBus() {
+            int next;
+            public int readByte() {
+                return (next++) & 0x7F;
+            }
+            public void writeByte(int value) {
+            }
+        });
+
+        pause();
+        int expect = 0, errors = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < bytes; i++) {
+            while ((acia.readByte(0) & ACIA6850.STATUS_RDRF) == 0);
+            if (acia.readByte(1) != (expect++ & 0x7F)) {
+                errors += 1;
+            }
+        }
+        report("receive", mode, bytes, System.nanoTime() - start);
+        acia.setRxBus(null);
+        if (errors > 0) {
+            System.out.println("  " + errors + " characters out of sequence");
+        }
+    }
+
+    /*
+     * Write characters to a device, timed until the device has them all
+     */
+    private static void transmit(String mode, int bytes) throws InterruptedException {
+        ACIA6850 acia = new ACIA6850(300, Thread.NORM_PRIORITY, mode.equals(Configuration.RING));
+        final int[] count = new int[1];
+        acia.setTxBus(new IOBus() {
+            public int readByte() {
+                return -1;
+            }
+            public void writeByte(int value) {
+                synchronized (count) {
+                    count[0] += 1;
+                    count.notify();
+                }
+            }
+        });
+
+        pause();
+        long start = System.nanoTime();
+        for (int i = 0; i < bytes; i++) {
+            while ((acia.readByte(0) & ACIA6850.STATUS_TDRE) == 0);
+            acia.writeByte(1, (byte)i);
+        }
+        synchronized (count) {
+            while (count[0] < bytes) {
+                count.wait();
+            }
+        }
+        report("transmit", mode, bytes, System.nanoTime() - start);
+        acia.setTxBus(null);
+    }
+
+    /*
+     * Load a tape with the monitor
+     */
+    private static void tape(String mode, File tapeFile) throws Exception {
+        Args.Map options = Args.optionMap();
+        options.put("properties", "");
+        Args args = new Args("", "", new String[] { "-properties", "cpu.speed=0;acia.mode=" + mode }, options);
+        Computer computer = new Computer(new Configuration(args, null));
+        computer.start();
+        Thread.sleep(500);
+        computer.keyboard.type("M");
+        while (computer.keyboard.isTyping()) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+
+        Timed in = new Timed(Tape.getInputStream(tapeFile, Tape.STREAM_SELECT, null));
+        computer.recorder.setInputTape(in);
+        computer.recorder.startTape();
+        computer.keyboard.type("L");
+
+        // The monitor does not have to read to the end of the tape, so wait
+        // for it to stop taking characters.
+        long count = 0, end = System.nanoTime();
+        while (count == 0 || System.nanoTime() - end < SETTLE) {
+            Thread.sleep(1);
+            long n = computer.acia.getRxCount();
+            if (n != count) {
+                count = n;
+                end = System.nanoTime();
+            }
+        }
+        report("tape", mode, count, end - in.start);
+        computer.recorder.ejectTape();
+        computer.shutdown();
+        computer.join();
+    }
+
+    // Note the time the first character is read from the tape
+    static class Timed extends FilterInputStream {
+        volatile long start;
+
+        Timed(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (start == 0) {
+                start = System.nanoTime();
+            }
+            return b;
+        }
+    }
+}
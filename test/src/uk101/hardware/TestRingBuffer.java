@@ -0,0 +1,122 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.hardware;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit tests for the ACIA ring buffer
+ */
+public class TestRingBuffer extends TestCase {
+
+    // Size is rounded up to a power of two
+    public void testCapacity() throws Exception {
+        assertEquals(1, new RingBuffer(1).capacity());
+        assertEquals(16, new RingBuffer(16).capacity());
+        assertEquals(32, new RingBuffer(17).capacity());
+    }
+
+    // Bytes come out in order and a full buffer refuses more
+    public void testOfferPoll() throws Exception {
+        RingBuffer rb = new RingBuffer(4);
+        assertTrue(rb.isEmpty());
+        assertEquals(-1, rb.peek());
+        assertEquals(-1, rb.poll());
+
+        for (int i = 0; i < 4; i++)
+            assertTrue(rb.offer(0xFD + i));
+        assertTrue(rb.isFull());
+        assertFalse(rb.offer(0));
+        assertEquals(4, rb.size());
+
+        assertEquals(0xFD, rb.peek());
+        assertEquals(0xFD, rb.poll());
+        assertEquals(0xFE, rb.poll());
+        assertEquals(0xFF, rb.poll());
+        assertEquals(0x00, rb.poll());
+        assertEquals(-1, rb.poll());
+        assertTrue(rb.isEmpty());
+    }
+
+    // The counts keep working as they go round the buffer many times
+    public void testWrap() throws Exception {
+        RingBuffer rb = new RingBuffer(8);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(rb.offer(i));
+            assertTrue(rb.offer(i+1));
+            assertEquals(i & 0xFF, rb.poll());
+            assertEquals((i+1) & 0xFF, rb.poll());
+        }
+        assertTrue(rb.isEmpty());
+    }
+
+    // Discarding throws away only what was added before the discard
+    public void testDiscard() throws Exception {
+        RingBuffer rb = new RingBuffer(8);
+        rb.offer(1);
+        rb.offer(2);
+        rb.discard();
+        rb.offer(3);
+        assertEquals(3, rb.peek());
+        assertEquals(3, rb.poll());
+        assertEquals(-1, rb.poll());
+
+        // A discard of bytes already read has no effect
+        rb.offer(4);
+        rb.poll();
+        rb.discard();
+        rb.offer(5);
+        assertEquals(5, rb.poll());
+    }
+
+    // Bytes waiting to be discarded are not counted, but they still fill the
+    // buffer until the consumer has skipped them
+    public void testDiscardSize() throws Exception {
+        RingBuffer rb = new RingBuffer(4);
+        for (int i = 0; i < 4; i++)
+            rb.offer(i);
+        rb.discard();
+        assertEquals(0, rb.size());
+        assertTrue(rb.isFull());
+        assertFalse(rb.offer(9));
+
+        assertEquals(-1, rb.peek());
+        assertEquals(0, rb.size());
+        assertFalse(rb.isFull());
+        assertTrue(rb.offer(9));
+        assertEquals(1, rb.size());
+        assertEquals(9, rb.poll());
+    }
+
+    // One thread adding and another taking away see every byte in order
+    public void testThreads() throws Exception {
+        final int count = 1000000;
+        final RingBuffer rb = new RingBuffer(64);
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    while (!rb.offer(i))
+                        Thread.yield();
+                }
+            }
+        };
+        producer.start();
+
+        int errors = 0;
+        for (int i = 0; i < count; i++) {
+            int b = rb.poll();
+            while (b == -1) {
+                Thread.yield();
+                b = rb.poll();
+            }
+            if (b != (i & 0xFF))
+                errors += 1;
+        }
+        producer.join();
+        assertEquals(0, errors);
+        assertTrue(rb.isEmpty());
+    }
+}
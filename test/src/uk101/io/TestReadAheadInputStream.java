@@ -0,0 +1,72 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit tests for the tape read-ahead stream
+ */
+public class TestReadAheadInputStream extends TestCase {
+
+    // Every byte is read in order, through a buffer smaller than the data,
+    // with its position in the source
+    public void testRead() throws Exception {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte)(i*7);
+
+        ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 16);
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i] & 0xFF, in.read());
+            assertEquals(i+1, in.getPosition());
+        }
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    // Closing the stream ends a read waiting for the source
+    public void testCloseWhileWaiting() throws Exception {
+        final ReadAheadInputStream in = new ReadAheadInputStream(new Stalled(), 16);
+        final int[] result = { -2 };
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    result[0] = in.read();
+                } catch (Exception e) {
+                    System.err.println(e);
+                }
+            }
+        };
+        reader.start();
+
+        // Wait for the reader to block, then close the stream
+        while (in.getUnderruns() == 0)
+            Thread.sleep(10);
+        in.close();
+        reader.join(5000);
+
+        assertFalse(reader.isAlive());
+        assertEquals(-1, result[0]);
+        assertEquals(0, in.available());
+        assertEquals(-1, in.read());
+    }
+
+    // A source that never has any data
+    static class Stalled extends InputStream {
+        public synchronized int read() {
+            while (true) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+    }
+}
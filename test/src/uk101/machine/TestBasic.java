@@ -0,0 +1,122 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import uk101.hardware.ROM;
+
+/**
+ * JUnit tests for loading and saving BASIC programs directly in memory
+ */
+public class TestBasic extends TestCase {
+
+    protected void setUp() throws Exception {
+        store = newStore();
+        basic = new Basic(store);
+    }
+
+    byte[] store;
+    Basic basic;
+
+    // A program as it would be typed in
+    String listing = "10 PRINT \"HI\";:A=1\r\n"
+                   + " 20  DATA 1,PRINT,3:REM X\r\n"
+                   + "30 FOR I=1 TO 10:?I:NEXT\r\n"
+                   + "40 REM TRAILING  \r\n";
+
+    // The same program as LIST shows it
+    String saved = " 10 PRINT \"HI\";:A=1\r\n"
+                 + " 20 DATA 1,PRINT,3:REM X\r\n"
+                 + " 30 FOR I=1 TO 10:PRINTI:NEXT\r\n"
+                 + " 40 REM TRAILING  \r\n";
+
+    // The program memory after typing the program into the real interpreter
+    int[] program = {
+        0x11, 0x03, 0x0A, 0x00, 0x97, 0x20, 0x22, 0x48, 0x49, 0x22, 0x3B, 0x3A,
+        0x41, 0xAB, 0x31, 0x00, 0x25, 0x03, 0x14, 0x00, 0x83, 0x20, 0x31, 0x2C,
+        0x50, 0x52, 0x49, 0x4E, 0x54, 0x2C, 0x33, 0x3A, 0x8E, 0x20, 0x58, 0x00,
+        0x39, 0x03, 0x1E, 0x00, 0x81, 0x20, 0x49, 0xAB, 0x31, 0x20, 0x9D, 0x20,
+        0x31, 0x30, 0x3A, 0x97, 0x49, 0x3A, 0x82, 0x00, 0x4A, 0x03, 0x28, 0x00,
+        0x8E, 0x20, 0x54, 0x52, 0x41, 0x49, 0x4C, 0x49, 0x4E, 0x47, 0x20, 0x20,
+        0x00, 0x00, 0x00,
+    };
+
+    // The interpreter is recognised and waiting for a command
+    public void testReady() throws Exception {
+        assertTrue(basic.recognised());
+        assertTrue(basic.ready());
+        assertEquals("END", basic.keywords()[0]);
+    }
+
+    // Loading a listing gives the same memory as typing it in
+    public void testLoad() throws Exception {
+        int lines = basic.load(Basic.readListing(new ByteArrayInputStream(listing.getBytes("US-ASCII"))));
+        assertEquals(4, lines);
+        assertProgram(store);
+    }
+
+    // Saving gives the program as it would be listed
+    public void testSave() throws Exception {
+        load(store, program);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int lines = basic.save(out);
+        System.out.println(out);
+
+        assertEquals(4, lines);
+        assertEquals(saved, out.toString("US-ASCII"));
+    }
+
+    // A saved program loads back into the same memory
+    public void testRoundTrip() throws Exception {
+        load(store, program);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        basic.save(out);
+
+        byte[] store2 = newStore();
+        new Basic(store2).load(Basic.readListing(new ByteArrayInputStream(out.toByteArray())));
+        assertProgram(store2);
+    }
+
+    // A program that does not fit leaves memory unchanged
+    public void testNoRoom() throws Exception {
+        basic.pokeWord(Basic.MEMSIZ, 0x0320);
+        byte[] before = store.clone();
+        int lines = basic.load(Basic.readListing(new ByteArrayInputStream(listing.getBytes("US-ASCII"))));
+        assertEquals(-1, lines);
+        assertTrue(Arrays.equals(before, store));
+    }
+
+    // An empty address space with the interpreter installed, as it is after
+    // a cold start with 8K of RAM
+    private static byte[] newStore() throws Exception {
+        byte[] store = new byte[0x10000];
+        ROM rom = new ROM("BASUK101");
+        System.arraycopy(rom.store, 0, store, 0xA000, rom.store.length);
+        Basic b = new Basic(store);
+        b.pokeWord(Basic.TXTTAB, 0x0301);
+        b.pokeWord(Basic.MEMSIZ, 0x2000);
+        b.pokeWord(Basic.CURLIN, Basic.DIRECT);
+        return store;
+    }
+
+    private static void load(byte[] store, int[] bytes) {
+        Basic b = new Basic(store);
+        for (int i = 0; i < bytes.length; i++)
+            b.poke(0x0301+i, bytes[i]);
+        b.pokeWord(Basic.VARTAB, 0x0301+bytes.length+1);
+    }
+
+    private void assertProgram(byte[] store) {
+        Basic b = new Basic(store);
+        for (int i = 0; i < program.length; i++)
+            assertEquals("byte " + i, program[i], b.peek(0x0301+i));
+        assertEquals(0x0301+program.length+1, b.peekWord(Basic.VARTAB));
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.machine;
+
+import java.io.ByteArrayInputStream;
+import java.io.PushbackInputStream;
+
+import junit.framework.TestCase;
+import uk101.utils.Args;
+
+/**
+ * JUnit tests for loading machine code tapes directly into memory, using
+ * the default MONUK02 monitor.
+ */
+public class TestMonitorLoader extends TestCase {
+
+    protected void setUp() throws Exception {
+        computer = new Computer(new Configuration(new Args("", "", new String[0], null), null));
+        pc = pc();
+    }
+
+    Computer computer;
+    int pc;
+
+    // MONUK02 address and data locations and go routine
+    static final int ADDRESS = 0xFE, DATA = 0xFC, GO = 0xFE79;
+
+    // Monitor format data, started through the monitor
+    public void testMonitor() throws Exception {
+        PushbackInputStream in = tape("\r\n.0400/A9\r01\r60\r.0400G10 PRINT");
+        MonitorLoader loader = computer.loadMonitor(in);
+        assertNotNull(loader);
+        System.out.println(loader.report());
+
+        assertEquals(3, loader.getBytes());
+        assertMemory(0x0400, 0xA9, 0x01, 0x60);
+        assertEquals(0x0400, peekWord(ADDRESS));
+        assertEquals(0xA9, peek(DATA));
+        assertEquals(0x0400, loader.getGo());
+        assertEquals(GO, pc());
+
+        // Anything after the go command is left to be read
+        assertEquals('1', in.read());
+    }
+
+    // Checksum format records, started at the $ address
+    public void testChecksum() throws Exception {
+        MonitorLoader loader = computer.loadMonitor(tape(";030400A901600111;0104100A001F$0400"));
+        System.out.println(loader.report());
+
+        assertEquals(4, loader.getBytes());
+        assertEquals(0, loader.getErrors());
+        assertMemory(0x0400, 0xA9, 0x01, 0x60);
+        assertMemory(0x0410, 0x0A);
+        assertEquals(0x0400, pc());
+    }
+
+    // A checksum error stops anything being stored or started
+    public void testChecksumError() throws Exception {
+        MonitorLoader loader = computer.loadMonitor(tape(";030400A9016001FF$0400"));
+        System.out.println(loader.report());
+
+        assertEquals(1, loader.getErrors());
+        assertMemory(0x0400, 0x00, 0x00, 0x00);
+        assertEquals(pc, pc());
+    }
+
+    // The go command for a short loader is ignored in favour of the records
+    // it would read, and nothing is started without a $ record
+    public void testShortLoader() throws Exception {
+        MonitorLoader loader = computer.loadMonitor(tape(".0200/EA\r.0200G\r\n;0104100A001F"));
+        System.out.println(loader.report());
+
+        assertMemory(0x0200, 0xEA);
+        assertMemory(0x0410, 0x0A);
+        assertEquals(-1, loader.getGo());
+        assertEquals(pc, pc());
+    }
+
+    // Anything else is not read as a monitor tape
+    public void testNotMonitor() throws Exception {
+        PushbackInputStream in = tape("\r\n10 PRINT");
+        assertNull(computer.loadMonitor(in));
+        assertEquals('1', in.read());
+    }
+
+    private static PushbackInputStream tape(String text) throws Exception {
+        return new PushbackInputStream(new ByteArrayInputStream(text.getBytes("US-ASCII")), MonitorLoader.LOOKAHEAD);
+    }
+
+    private int peek(int addr) {
+        return computer.readByte(addr) & 0xFF;
+    }
+
+    private int peekWord(int addr) {
+        return peek(addr) + (peek(addr+1) << 8);
+    }
+
+    private int pc() {
+        return new Cpu(computer.cpu).PC & 0xFFFF;
+    }
+
+    private void assertMemory(int addr, int... bytes) {
+        for (int i = 0; i < bytes.length; i++)
+            assertEquals(String.format("%04X", addr+i), bytes[i], peek(addr+i));
+    }
+}
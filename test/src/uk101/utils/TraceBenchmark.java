@@ -0,0 +1,112 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import uk101.machine.Trace;
+
+/**
+ * Utility program to compare the speed of the original PrintTrace
+ * formatting with the parallel TraceFormatter pipeline.  The trace is read
+ * into memory first so only the formatting is timed.  The output is
+ * discarded, but a checksum is printed to show both give the same result.
+ *
+ * Usage:
+ *    TraceBenchmark [options] tracefile
+ *
+ * where:
+ *    tracefile: is the name of an instruction trace file
+ *
+ * options:
+ *    -repeat count: number of times to run each test, defaults to 3
+ *    -threads count: maximum number of formatting threads, defaults to the number of processors
+ */
+public class TraceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        // Handle parameters
+        Args.Map options = Args.optionMap();
+        options.put("repeat", "count (times to run each test)");
+        options.put("threads", "count (maximum formatting threads)");
+        Args parms = new Args(TraceBenchmark.class, "tracefile", args, options);
+        File inputFile = parms.getInputFile(1);
+        int repeat = parms.getInteger("repeat", 3);
+        int threads = parms.getInteger("threads", Runtime.getRuntime().availableProcessors());
+
+        // Check parameters
+        if (inputFile == null || repeat < 1 || threads < 1) {
+            parms.usage();
+        }
+
+        // Read the trace
+        long start = System.nanoTime();
+        Trace trace = Trace.readTrace(inputFile);
+        List<Trace.Entry> entries = new ArrayList<Trace.Entry>();
+        for (Trace.Entry entry = trace.nextEntry(); entry != null; entry = trace.nextEntry()) {
+            entries.add(entry);
+        }
+        System.out.println("Read " + entries.size() + " entries in " + millis(start) + "ms");
+
+        for (int r = 0; r < repeat; r++) {
+            // Original formatting
+            Checksum out = new Checksum();
+            start = System.nanoTime();
+            PrintStream ps = new PrintStream(new BufferedOutputStream(out, 65536));
+            PrintTrace tracer = new PrintTrace(ps);
+            for (Trace.Entry entry : entries) {
+                tracer.print(entry);
+            }
+            ps.flush();
+            report("PrintTrace", entries.size(), start, out);
+
+            // Parallel formatting
+            for (int t = 1; t <= threads; t *= 2) {
+                out = new Checksum();
+                start = System.nanoTime();
+                TraceFormatter.Pipeline pipeline = new TraceFormatter.Pipeline(out, t);
+                for (Trace.Entry entry : entries) {
+                    pipeline.add(entry);
+                }
+                pipeline.close();
+                report("TraceFormatter (" + t + " threads)", entries.size(), start, out);
+            }
+            System.out.println();
+        }
+    }
+
+    private static long millis(long start) {
+        return (System.nanoTime() - start)/1000000;
+    }
+
+    private static void report(String name, int count, long start, Checksum out) {
+        long ms = Math.max(1, millis(start));
+        System.out.println(String.format("%-30s %8dms %10d entries/s  %10d bytes  crc=%08X",
+                name, ms, (1000L*count)/ms, out.bytes, out.crc.getValue()));
+    }
+
+    // Output stream that just counts and checksums the output
+    static class Checksum extends OutputStream {
+        CRC32 crc = new CRC32();
+        long bytes;
+
+        public void write(int b) {
+            crc.update(b);
+            bytes += 1;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            crc.update(b, off, len);
+            bytes += len;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.view.component;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk101.hardware.ROM;
+import uk101.hardware.Video;
+import uk101.utils.Args;
+
+/**
+ * Utility program to time the video screen while a BASIC program is being
+ * listed, with and without scroll detection.  The video writes are the same
+ * as the MONUK02 monitor makes: characters are written to the bottom row and
+ * the screen is scrolled by copying every row up one row, a byte at a time.
+ *
+ * The screen uses synchronous updates drawn to an offscreen image.  At the
+ * end the offscreen image is compared with a full repaint of the screen to
+ * check the updates were correct.
+ *
+ * Usage:
+ *    ScrollBenchmark [options] basicfile
+ *
+ * where:
+ *    basicfile: is the name of a BASIC program text file
+ *
+ * options:
+ *    -repeat count: number of times to run each test, defaults to 3
+ */
+public class ScrollBenchmark {
+
+    static final int ROWS = 16, COLS = 64;
+    static final int OFFSET = 12, WIDTH = 48;
+
+    public static void main(String[] args) throws Exception {
+        // Handle parameters
+        Args.Map options = Args.optionMap();
+        options.put("repeat", "count (times to run each test)");
+        Args parms = new Args(ScrollBenchmark.class, "basicfile", args, options);
+        File inputFile = parms.getInputFile(1);
+        int repeat = parms.getInteger("repeat", 3);
+
+        // Check parameters
+        if (inputFile == null || repeat < 1) {
+            parms.usage();
+        }
+
+        // Read the program text
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(inputFile));
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lines.add(line);
+        }
+        in.close();
+
+        Video video = new Video(ROWS, COLS, new ROM("CHGUK101.ROM"));
+        for (int r = 0; r < repeat; r++) {
+            run("image", video, lines, false, false);
+            run("image, scroll detection", video, lines, false, true);
+            run("raster", video, lines, true, false);
+            run("raster, scroll detection", video, lines, true, true);
+            System.out.println();
+        }
+    }
+
+    private static void run(String name, Video video, List<String> lines, boolean raster, boolean detect) {
+        Listing listing = new Listing(video, raster, detect);
+        long start = System.nanoTime();
+        for (String line : lines) {
+            listing.print(line);
+        }
+        long ms = Math.max(1, (System.nanoTime() - start)/1000000);
+        System.out.println(String.format("%-30s %6dms %10d writes/s  %6d rows shifted  %s",
+                name, ms, (1000L*listing.writes)/ms, listing.screen.getRowsShifted(),
+                listing.check() ? "ok" : "DIFFERENT"));
+    }
+
+    // Output as written by the monitor, drawn to an offscreen image
+    static class Listing {
+        VideoScreen screen;
+        BufferedImage image;
+        byte[] store;
+        int cursor;
+        long writes;
+
+        Listing(Video video, boolean raster, boolean detect) {
+            screen = new VideoScreen(video, ROWS, WIDTH, 1, 2, 1, Color.WHITE, raster) {
+                private static final long serialVersionUID = 1L;
+                public Graphics getGraphics() {
+                    return image.getGraphics();
+                }
+            };
+            Dimension size = screen.getPreferredSize();
+            screen.setSize(size);
+            screen.setUpdateMode(true);
+            screen.setScrollDetection(detect);
+            image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+            paint(image);
+
+            store = new byte[ROWS*COLS];
+            Arrays.fill(store, (byte)' ');
+        }
+
+        void print(String line) {
+            for (int i = 0; i < line.length(); i++) {
+                if (cursor == WIDTH) {
+                    newLine();
+                }
+                write((ROWS-1)*COLS + OFFSET + cursor++, (byte)line.charAt(i));
+            }
+            newLine();
+        }
+
+        // The monitor copies the whole video memory up one row then clears
+        // the bottom row.
+        void newLine() {
+            for (int i = 0; i < (ROWS-1)*COLS; i++) {
+                write(i, store[i+COLS]);
+            }
+            for (int i = (ROWS-1)*COLS; i < ROWS*COLS; i++) {
+                write(i, (byte)' ');
+            }
+            cursor = 0;
+        }
+
+        void write(int addr, byte b) {
+            store[addr] = b;
+            writes += 1;
+            int r = addr / COLS, c = addr % COLS - OFFSET;
+            if (c >= 0 && c < WIDTH) {
+                screen.screenUpdate(r, c, b);
+            }
+        }
+
+        // Compare the updated image with a complete repaint
+        boolean check() {
+            screen.setScrollDetection(false);
+            BufferedImage full = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            paint(full);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    if (image.getRGB(x, y) != full.getRGB(x, y))
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        void paint(BufferedImage target) {
+            Graphics g = target.getGraphics();
+            screen.paint(g);
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Compukit UK101 Simulator
+ *
+ * (C) Copyright Tim Baldwin 2022
+ */
+package uk101.view.component;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import uk101.hardware.Keyboard;
+import uk101.hardware.ROM;
+import uk101.hardware.Video;
+import uk101.hardware.bus.VideoBus;
+import uk101.machine.Computer;
+import uk101.machine.Configuration;
+import uk101.utils.Args;
+import uk101.view.MachineImage;
+
+/**
+ * Utility program to measure the cost of drawing the video screen.  Each
+ * workload is a list of frames, where a frame is the video writes made in
+ * 1/50 second.  The writes are passed to a VideoScreen that draws to an
+ * offscreen image, for each of the screen update modes and render types.
+ *
+ * The workloads are:
+ *    random:  random characters written to random cells
+ *    rewrite: the whole video memory rewritten every frame
+ *    scroll:  a line written to the bottom row then scrolled, as the
+ *             MONUK02 monitor does it
+ *    game:    the writes recorded from running a saved machine image, after
+ *             typing some keys to start the game
+ *
+ * In async mode the areas passed to repaint are combined and painted at
+ * the end of each frame, as Swing would.  In frame mode the frame refresh
+ * is called at the end of each frame.
+ *
+ * Usage:
+ *    VideoBenchmark [options] [machine]
+ *
+ * where:
+ *    machine: a saved machine image to record the game workload from
+ *
+ * options:
+ *    -frames count: number of frames in each synthetic workload, defaults to 500
+ *    -keys text: keys to type to start the game, a space is the space bar
+ *    -record seconds: seconds to record the game for, defaults to 5
+ *    -repeat count: number of times to run each test, defaults to 2
+ *
+ * For example, to start the sample Space Invaders game:
+ *    VideoBenchmark -keys "M.0300G1 " samples/machines/invaders.uk101
+ */
+public class VideoBenchmark {
+
+    static final int ROWS = 16, COLS = 64;
+    static final int SCREEN_OFFSET = 12, SCREEN_WIDTH = 48;
+    static final int FPS = 50;
+
+    public static void main(String[] args) throws Exception {
+        // Handle parameters
+        Args.Map options = Args.optionMap();
+        options.put("frames", "count (frames in each synthetic workload)");
+        options.put("keys", "text (keys to start the game)");
+        options.put("record", "seconds (time to record the game)");
+        options.put("repeat", "count (times to run each test)");
+        Args parms = new Args(VideoBenchmark.class, "[machine]", args, options);
+        File imageFile = parms.getInputFile(1);
+        int frames = parms.getInteger("frames", 500);
+        String keys = parms.getOption("keys");
+        int seconds = parms.getInteger("record", 5);
+        int repeat = parms.getInteger("repeat", 2);
+
+        // Check parameters
+        if (frames < 1 || seconds < 1 || repeat < 1) {
+            parms.usage();
+        }
+
+        // Build the workloads
+        List<String> names = new ArrayList<String>();
+        List<int[][]> workloads = new ArrayList<int[][]>();
+        names.add("random");   workloads.add(random(frames));
+        names.add("rewrite");  workloads.add(rewrite(frames));
+        names.add("scroll");   workloads.add(scroll(frames));
+        if (imageFile != null) {
+            names.add("game");  workloads.add(game(imageFile, keys, seconds));
+        }
+
+        Video video = new Video(ROWS, COLS, new ROM("CHGUK101.ROM"));
+        System.out.println(String.format("%-8s %-7s %-6s %8s %10s %9s %9s %9s %10s",
+                "workload", "render", "update", "writes", "cells/s", "frame avg", "frame p99", "frame max", "alloc MB/s"));
+        for (int r = 0; r < repeat; r++) {
+            for (int w = 0; w < workloads.size(); w++) {
+                for (String render : new String[] { Configuration.IMAGE, Configuration.RASTER }) {
+                    for (String update : new String[] { Configuration.SYNC, Configuration.ASYNC, Configuration.FRAME }) {
+                        run(names.get(w), workloads.get(w), video, render, update);
+                    }
+                }
+            }
+            System.out.println();
+        }
+
+        // The recorded machine can leave threads running
+        System.exit(0);
+    }
+
+    /*
+     * Run a workload and report the results
+     */
+    private static void run(String name, int[][] workload, Video video, String render, String update) {
+        Offscreen screen = new Offscreen(video, render.equals(Configuration.RASTER));
+        screen.setUpdateMode(update.equals(Configuration.SYNC));
+        if (update.equals(Configuration.FRAME)) {
+            screen.setRefreshRate(FPS);
+        }
+        screen.endFrame(update);
+
+        long[] times = new long[workload.length];
+        long writes = 0;
+        long alloc = allocated();
+        long start = System.nanoTime();
+        for (int f = 0; f < workload.length; f++) {
+            long t = System.nanoTime();
+            int[] frame = workload[f];
+            for (int i = 0; i < frame.length; i++) {
+                int addr = frame[i] >> 8;
+                int c = addr % COLS - SCREEN_OFFSET;
+                if (c >= 0 && c < SCREEN_WIDTH) {
+                    screen.screenUpdate(addr / COLS, c, (byte)frame[i]);
+                }
+            }
+            screen.endFrame(update);
+            times[f] = System.nanoTime() - t;
+            writes += frame.length;
+        }
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        alloc = allocated() - alloc;
+        screen.setRefreshRate(0);
+
+        Arrays.sort(times);
+        long total = 0;
+        for (long t : times)
+            total += t;
+        System.out.println(String.format("%-8s %-7s %-6s %8d %10d %7.3fms %7.3fms %7.3fms %10.1f",
+                name, render, update, writes, writes*1000000000L/elapsed,
+                total/1e6/times.length, times[times.length*99/100]/1e6, times[times.length-1]/1e6,
+                (alloc < 0) ? 0.0 : alloc/1048576.0/(elapsed/1e9)));
+    }
+
+    // Bytes allocated by this thread, if the JVM can report it
+    private static long allocated() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /*
+     * A video screen that draws to an offscreen image.  Swing would not
+     * paint a screen that is not being shown, so this takes the place of
+     * the Swing repaint processing.
+     */
+    static class Offscreen extends VideoScreen {
+        private static final long serialVersionUID = 1L;
+
+        BufferedImage image;
+        Graphics2D graphics;
+        Rectangle damage;
+
+        Offscreen(Video video, boolean raster) {
+            super(video, ROWS, SCREEN_WIDTH, 1, 2, 1, Color.WHITE, raster);
+            Dimension size = getPreferredSize();
+            setSize(size);
+            image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+            graphics = image.createGraphics();
+        }
+
+        public Graphics getGraphics() {
+            return graphics.create();
+        }
+
+        public void repaint(long tm, int x, int y, int width, int height) {
+            Rectangle r = new Rectangle(x, y, width, height);
+            if (damage == null)
+                damage = r;
+            else
+                damage.add(r);
+        }
+
+        public void paintImmediately(int x, int y, int w, int h) {
+            Graphics g = graphics.create();
+            g.clipRect(x, y, w, h);
+            paint(g);
+            g.dispose();
+        }
+
+        // Paint whatever is waiting at the end of a frame
+        void endFrame(String update) {
+            if (update.equals(Configuration.FRAME)) {
+                refreshFrame();
+            }
+            if (damage != null) {
+                Rectangle r = damage;
+                damage = null;
+                paintImmediately(r.x, r.y, r.width, r.height);
+            }
+        }
+    }
+
+    /*
+     * Workloads, each write is the video address and the byte value
+     */
+
+    private static int write(int addr, int b) {
+        return (addr << 8) | (b & 0xFF);
+    }
+
+    private static int[][] random(int frames) {
+        Random random = new Random(101);
+        int[][] workload = new int[frames][200];
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < workload[f].length; i++) {
+                workload[f][i] = write(random.nextInt(ROWS*COLS), 32 + random.nextInt(96));
+            }
+        }
+        return workload;
+    }
+
+    private static int[][] rewrite(int frames) {
+        int[][] workload = new int[frames][ROWS*COLS];
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < ROWS*COLS; i++) {
+                workload[f][i] = write(i, 32 + (i + f) % 96);
+            }
+        }
+        return workload;
+    }
+
+    private static int[][] scroll(int frames) {
+        byte[] store = new byte[ROWS*COLS];
+        Arrays.fill(store, (byte)' ');
+        int[][] workload = new int[frames][];
+        for (int f = 0; f < frames; f++) {
+            List<Integer> writes = new ArrayList<Integer>();
+            String line = Integer.toString(f*10) + " PRINT \"LINE " + f + "\"";
+            for (int i = 0; i < line.length(); i++) {
+                int addr = (ROWS-1)*COLS + SCREEN_OFFSET + i;
+                store[addr] = (byte)line.charAt(i);
+                writes.add(write(addr, store[addr]));
+            }
+            for (int i = 0; i < ROWS*COLS; i++) {
+                store[i] = (i < (ROWS-1)*COLS) ? store[i+COLS] : (byte)' ';
+                writes.add(write(i, store[i]));
+            }
+            workload[f] = toArray(writes);
+        }
+        return workload;
+    }
+
+    // Run a saved machine and record its video writes, split into frames
+    // of emulated time.
+    private static int[][] game(File imageFile, String keys, int seconds) throws Exception {
+        MachineImage image = MachineImage.readImage(imageFile);
+        Configuration cfg = new Configuration(new Args("", "", new String[0], null), image.imageCfg);
+        Computer computer = new Computer(cfg);
+        computer.start();
+        Thread.sleep(500);
+        image.apply(computer, null);
+        for (int i = 0; keys != null && i < keys.length(); i++) {
+            int key = (keys.charAt(i) == ' ') ? Keyboard.KEY_SPACE : keys.charAt(i);
+            Thread.sleep(300);
+            computer.keyboard.pressKey(key);
+            Thread.sleep(100);
+            computer.keyboard.releaseKey(key);
+        }
+
+        final List<int[]> frames = new ArrayList<int[]>();
+        final List<Integer> writes = new ArrayList<Integer>();
+        computer.video.setView(new VideoBus() {
+            public void updateVideo(int addr, byte b) {
+                writes.add(write(addr, b));
+            }
+        });
+        computer.cpu.timer(Math.max(computer.cpu.getMHz(), 1)*1000000/FPS, new Runnable() {
+            public void run() {
+                frames.add(toArray(writes));
+                writes.clear();
+            }
+        });
+        Thread.sleep(seconds*1000L);
+        computer.cpu.timer(0, null);
+        computer.shutdown();
+        computer.join();
+        return frames.toArray(new int[frames.size()][]);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] a = new int[list.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = list.get(i);
+        return a;
+    }
+}